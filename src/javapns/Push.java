@@ -151,34 +151,71 @@ public class Push {
 
 
 	/**
-	 * Push a preformatted payload to a list of devices.
+	 * Push a preformatted payload to a list of devices, and report the outcome of each notification to a sink
+	 * instead of returning a list of pushed notifications.
 	 * 
 	 * @param payload a simple or complex payload to push.
 	 * @param keystore a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
 	 * @param password the keystore's password.
 	 * @param production true to use Apple's production servers, false to use the sandbox servers.
 	 * @param devices a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List}<{@link java.lang.String}>, {@link javapns.devices.Device Device[]}, {@link java.util.List}<{@link javapns.devices.Device}>, {@link java.lang.String} or {@link javapns.devices.Device}
-	 * @return a list of pushed notifications, each with details on transmission results and error (if any)
+	 * @param sink a sink receiving the outcome of each notification as soon as it is final
 	 * @throws KeystoreException thrown if an error occurs when loading the keystore
 	 * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
 	 */
+	public static void payload(Payload payload, Object keystore, String password, boolean production, Object devices, PushResultSink sink) throws CommunicationException, KeystoreException {
+		sendPayload(payload, keystore, password, production, devices, sink);
+	}
+
+
 	private static PushedNotifications sendPayload(Payload payload, Object keystore, String password, boolean production, Object devices) throws CommunicationException, KeystoreException {
+		return sendPayload(payload, keystore, password, production, devices, null);
+	}
+
+
+	/**
+	 * Push a preformatted payload to a list of devices.
+	 * 
+	 * @param payload a simple or complex payload to push.
+	 * @param keystore a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
+	 * @param password the keystore's password.
+	 * @param production true to use Apple's production servers, false to use the sandbox servers.
+	 * @param devices a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List}<{@link java.lang.String}>, {@link javapns.devices.Device Device[]}, {@link java.util.List}<{@link javapns.devices.Device}>, {@link java.lang.String} or {@link javapns.devices.Device}
+	 * @param sink a sink receiving the outcome of each notification, or null to return all pushed notifications
+	 * @return a list of pushed notifications, each with details on transmission results and error (if any), or an empty list if a sink is provided
+	 * @throws KeystoreException thrown if an error occurs when loading the keystore
+	 * @throws CommunicationException thrown if an unrecoverable error occurs while trying to communicate with Apple servers
+	 */
+	private static PushedNotifications sendPayload(Payload payload, Object keystore, String password, boolean production, Object devices, PushResultSink sink) throws CommunicationException, KeystoreException {
 		PushedNotifications notifications = new PushedNotifications();
 		if (payload == null) return notifications;
 		PushNotificationManager pushManager = new PushNotificationManager();
+		pushManager.setResultSink(sink);
 		try {
 			AppleNotificationServer server = new AppleNotificationServerBasicImpl(keystore, password, production);
 			pushManager.initializeConnection(server);
 			List<Device> deviceList = Devices.asDevices(devices);
 			Devices.evaluateEfficiency(deviceList);
-			notifications.setMaxRetained(deviceList.size());
+			BroadcastFrame frame = null;
+			if (deviceList.size() > 1) {
+				try {
+					frame = new BroadcastFrame(payload);
+				} catch (Exception e) {
+					/* The payload cannot be broadcast, so the problem (if any) will be reported for each notification */
+				}
+			}
+			if (sink == null) notifications.setMaxRetained(deviceList.size());
+			int index = 0;
 			for (Device device : deviceList) {
+				int deviceIndex = index++;
 				try {
 					BasicDevice.validateTokenFormat(device.getToken());
-					PushedNotification notification = pushManager.sendNotification(device, payload, false);
-					notifications.add(notification);
+					PushedNotification notification = frame != null ? pushManager.sendNotification(device, frame, false, PushNotificationManager.SEQUENTIAL_IDENTIFIER, null, deviceIndex) : pushManager.sendNotification(device, payload, false, PushNotificationManager.SEQUENTIAL_IDENTIFIER, null, deviceIndex);
+					if (sink == null) notifications.add(notification);
 				} catch (InvalidDeviceTokenFormatException e) {
-					notifications.add(new PushedNotification(device, payload, e));
+					PushedNotification notification = new PushedNotification(device, payload, e);
+					if (sink != null) notification.reportTo(sink);
+					else notifications.add(notification);
 				}
 			}
 		} finally {
@@ -199,15 +236,76 @@ public class Push {
 	 * @param password the keystore's password.
 	 * @param production true to use Apple's production servers, false to use the sandbox servers.
 	 * @param numberOfThreads the number of parallel threads to use to push the notifications
-	 * @param devices a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List}<{@link java.lang.String}>, {@link javapns.devices.Device Device[]}, {@link java.util.List}<{@link javapns.devices.Device}>, {@link java.lang.String} or {@link javapns.devices.Device}
+	 * @param devices a list or an array of tokens or devices: {@link java.lang.String String[]}, {@link java.util.List}<{@link java.lang.String}>, {@link javapns.devices.Device Device[]}, {@link java.util.List}<{@link javapns.devices.Device}>, {@link java.lang.String} or {@link javapns.devices.Device}, or an {@link java.util.Iterator} of tokens or devices pulled lazily
 	 * @return a list of pushed notifications, each with details on transmission results and error (if any)
 	 * @throws Exception thrown if any critical exception occurs
 	 */
 	public static PushedNotifications payload(Payload payload, Object keystore, String password, boolean production, int numberOfThreads, Object devices) throws Exception {
+		if (devices instanceof Iterator) return payload(payload, keystore, password, production, numberOfThreads, (Iterator<?>) devices);
 		if (numberOfThreads <= 0) return sendPayload(payload, keystore, password, production, devices);
 		AppleNotificationServer server = new AppleNotificationServerBasicImpl(keystore, password, production);
 		List<Device> deviceList = Devices.asDevices(devices);
 		NotificationThreads threads = new NotificationThreads(server, payload, deviceList, numberOfThreads);
+		threads.enableChunking();
+		threads.start();
+		try {
+			threads.waitForAllThreads(true);
+		} catch (InterruptedException e) {
+		}
+		return threads.getPushedNotifications(true);
+	}
+
+
+	/**
+	 * Push a preformatted payload to a list of devices using multiple simulatenous threads (and connections),
+	 * and report the outcome of each notification to a sink instead of returning a list of pushed notifications.
+	 * Combined with an iterator of devices, this lets very large jobs run with constant memory.
+	 * 
+	 * @param payload a simple or complex payload to push.
+	 * @param keystore a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
+	 * @param password the keystore's password.
+	 * @param production true to use Apple's production servers, false to use the sandbox servers.
+	 * @param numberOfThreads the number of parallel threads to use to push the notifications
+	 * @param devices a list or an array of tokens or devices, or an {@link java.util.Iterator} of tokens or devices pulled lazily
+	 * @param sink a thread-safe sink receiving the outcome of each notification as soon as it is final
+	 * @throws Exception thrown if any critical exception occurs
+	 */
+	public static void payload(Payload payload, Object keystore, String password, boolean production, int numberOfThreads, Object devices, PushResultSink sink) throws Exception {
+		AppleNotificationServer server = new AppleNotificationServerBasicImpl(keystore, password, production);
+		NotificationThreads threads;
+		if (devices instanceof Iterator) {
+			threads = new NotificationThreads(server, payload, (Iterator<?>) devices, Math.max(1, numberOfThreads));
+		} else {
+			threads = new NotificationThreads(server, payload, Devices.asDevices(devices), Math.max(1, numberOfThreads));
+			threads.enableChunking();
+		}
+		threads.setResultSink(sink);
+		threads.start();
+		try {
+			threads.waitForAllThreads(true);
+		} catch (InterruptedException e) {
+		}
+	}
+
+
+	/**
+	 * Push a preformatted payload to devices pulled lazily from an iterator using multiple simulatenous threads (and connections).
+	 * 
+	 * Devices are read from the iterator in chunks as threads need them, so the whole audience never has to be held in memory.
+	 * Since the number of devices is not known in advance, only the most recent notifications pushed by each thread are returned.
+	 * 
+	 * @param payload a simple or complex payload to push.
+	 * @param keystore a keystore containing your private key and the certificate signed by Apple ({@link java.io.File}, {@link java.io.InputStream}, byte[], {@link java.security.KeyStore} or {@link java.lang.String} for a file path)
+	 * @param password the keystore's password.
+	 * @param production true to use Apple's production servers, false to use the sandbox servers.
+	 * @param numberOfThreads the number of parallel threads to use to push the notifications
+	 * @param devices an iterator of tokens ({@link java.lang.String}) or devices ({@link javapns.devices.Device})
+	 * @return the most recent pushed notifications, each with details on transmission results and error (if any)
+	 * @throws Exception thrown if any critical exception occurs
+	 */
+	public static PushedNotifications payload(Payload payload, Object keystore, String password, boolean production, int numberOfThreads, Iterator<?> devices) throws Exception {
+		AppleNotificationServer server = new AppleNotificationServerBasicImpl(keystore, password, production);
+		NotificationThreads threads = new NotificationThreads(server, payload, devices, Math.max(1, numberOfThreads));
 		threads.start();
 		try {
 			threads.waitForAllThreads(true);
@@ -260,15 +358,17 @@ public class Push {
 	 * @param password the keystore's password.
 	 * @param production true to use Apple's production servers, false to use the sandbox servers.
 	 * @param numberOfThreads the number of parallel threads to use to push the notifications
-	 * @param payloadDevicePairs a list or an array of PayloadPerDevice: {@link java.util.List}<{@link javapns.notification.PayloadPerDevice}>, {@link javapns.notification.PayloadPerDevice PayloadPerDevice[]} or {@link javapns.notification.PayloadPerDevice}
+	 * @param payloadDevicePairs a list or an array of PayloadPerDevice: {@link java.util.List}<{@link javapns.notification.PayloadPerDevice}>, {@link javapns.notification.PayloadPerDevice PayloadPerDevice[]} or {@link javapns.notification.PayloadPerDevice}, or an {@link java.util.Iterator} of PayloadPerDevice pulled lazily
 	 * @return a list of pushed notifications, each with details on transmission results and error (if any)
 	 * @throws Exception thrown if any critical exception occurs
 	 */
 	public static PushedNotifications payloads(Object keystore, String password, boolean production, int numberOfThreads, Object payloadDevicePairs) throws Exception {
+		if (payloadDevicePairs instanceof Iterator) return payload(null, keystore, password, production, numberOfThreads, (Iterator<?>) payloadDevicePairs);
 		if (numberOfThreads <= 0) return sendPayloads(keystore, password, production, payloadDevicePairs);
 		AppleNotificationServer server = new AppleNotificationServerBasicImpl(keystore, password, production);
 		List<PayloadPerDevice> payloadPerDevicePairs = Devices.asPayloadsPerDevices(payloadDevicePairs);
 		NotificationThreads threads = new NotificationThreads(server, payloadPerDevicePairs, numberOfThreads);
+		threads.enableChunking();
 		threads.start();
 		try {
 			threads.waitForAllThreads(true);
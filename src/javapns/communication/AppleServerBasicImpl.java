@@ -44,6 +44,16 @@ public abstract class AppleServerBasicImpl implements AppleServer {
 	}
 
 
+	/**
+	 * Get the keystore reference provided to this server (a File, a String for a file path, a byte[] array or a KeyStore).
+	 * 
+	 * @return the keystore reference
+	 */
+	Object getKeystoreReference() {
+		return keystore;
+	}
+
+
 	public String getKeystorePassword() {
 		return password;
 	}
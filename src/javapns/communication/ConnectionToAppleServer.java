@@ -29,6 +29,12 @@ public abstract class ConnectionToAppleServer {
 	/* The protocol used to create the SSLSocket */
 	private static final String PROTOCOL = "TLS";
 
+	/* Number of TLS sessions kept for resumption by each SSLContext */
+	private static final int SESSION_CACHE_SIZE = 256;
+
+	/* Number of seconds a TLS session can be resumed after it was established */
+	private static final int SESSION_TIMEOUT = 24 * 60 * 60;
+
 	/* PKCS12 */
 	public static final String KEYSTORE_TYPE_PKCS12 = "PKCS12";
 	/* JKS */
@@ -40,6 +46,7 @@ public abstract class ConnectionToAppleServer {
 
 	private KeyStore keyStore;
 	private SSLSocketFactory socketFactory;
+	private SSLContext sslContext;
 	private AppleServer server;
 
 
@@ -51,7 +58,7 @@ public abstract class ConnectionToAppleServer {
 	 */
 	public ConnectionToAppleServer(AppleServer server) throws KeystoreException {
 		this.server = server;
-		this.keyStore = KeystoreManager.loadKeystore(server);
+		this.keyStore = SSLSocketFactoryCache.getKeystore(server);
 	}
 
 
@@ -90,8 +97,20 @@ public abstract class ConnectionToAppleServer {
 	 * @throws KeystoreException 
 	 */
 	protected SSLSocketFactory createSSLSocketFactoryWithTrustManagers(TrustManager[] trustManagers) throws KeystoreException {
-
 		logger.debug("Creating SSLSocketFactory");
+		return createSSLContextWithTrustManagers(trustManagers).getSocketFactory();
+	}
+
+
+	/**
+	 * Generic SSLContext builder
+	 * 
+	 * @param trustManagers
+	 * @return SSLContext
+	 * @throws KeystoreException 
+	 */
+	protected SSLContext createSSLContextWithTrustManagers(TrustManager[] trustManagers) throws KeystoreException {
+
 		// Get a KeyManager and initialize it 
 		try {
 			KeyStore keystore = getKeystore();
@@ -108,7 +127,14 @@ public abstract class ConnectionToAppleServer {
 			SSLContext sslc = SSLContext.getInstance(PROTOCOL);
 			sslc.init(kmf.getKeyManagers(), trustManagers, null);
 
-			return sslc.getSocketFactory();
+			// Keep sessions so that connections reopened to the same server can resume them
+			SSLSessionContext sessions = sslc.getClientSessionContext();
+			if (sessions != null) {
+				sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+				sessions.setSessionTimeout(SESSION_TIMEOUT);
+			}
+
+			return sslc;
 		} catch (Exception e) {
 			throw new KeystoreException("Keystore exception: " + e.getMessage(), e);
 		}
@@ -132,8 +158,25 @@ public abstract class ConnectionToAppleServer {
 	}
 
 
+	/**
+	 * Return a SSLContext for creating SSLEngines to communicate with Apple over non-blocking channels.
+	 * 
+	 * @return SSLContext
+	 * @throws KeystoreException
+	 */
+	public SSLContext createSSLContext() throws KeystoreException {
+		return createSSLContextWithTrustManagers(new TrustManager[] { new ServerTrustingTrustManager() });
+	}
+
+
+	public SSLContext getSSLContext() throws KeystoreException {
+		if (sslContext == null) sslContext = SSLSocketFactoryCache.getSSLContext(this);
+		return sslContext;
+	}
+
+
 	public SSLSocketFactory getSSLSocketFactory() throws KeystoreException {
-		if (socketFactory == null) socketFactory = createSSLSocketFactory();
+		if (socketFactory == null) socketFactory = SSLSocketFactoryCache.getSocketFactory(this);
 		return socketFactory;
 	}
 
@@ -149,11 +192,21 @@ public abstract class ConnectionToAppleServer {
 		logger.debug("Creating SSLSocket to " + getServerHost() + ":" + getServerPort());
 
 		try {
+			final long connectionStarted = System.currentTimeMillis();
+			SSLSocket socket;
 			if (ProxyManager.isUsingProxy(server)) {
-				return tunnelThroughProxy(socketFactory);
+				socket = tunnelThroughProxy(socketFactory);
 			} else {
-				return (SSLSocket) socketFactory.createSocket(getServerHost(), getServerPort());
+				socket = (SSLSocket) socketFactory.createSocket(getServerHost(), getServerPort());
 			}
+			/* Sockets are created with the server's host and port, so that the session cache can find sessions to resume */
+			socket.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+				public void handshakeCompleted(HandshakeCompletedEvent event) {
+					boolean resumed = HandshakeStatistics.handshakeCompleted(event.getSession(), connectionStarted);
+					logger.debug((resumed ? "Resumed" : "Full") + " TLS handshake completed with " + getServerHost());
+				}
+			});
+			return socket;
 		} catch (Exception e) {
 			throw new CommunicationException("Communication exception: " + e, e);
 		}
@@ -0,0 +1,71 @@
+package javapns.communication;
+
+import java.util.concurrent.atomic.*;
+
+import javax.net.ssl.*;
+
+/**
+ * Process-wide counters of TLS handshakes performed with Apple servers.
+ *
+ * <p>Connections sharing a SSLSocketFactory (see {@link SSLSocketFactoryCache}) also share a
+ * client session cache, so a connection reopened to the same server can resume a previous
+ * TLS session with an abbreviated handshake instead of performing a full handshake with
+ * client-certificate authentication.  These counters show how often that happens.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class HandshakeStatistics {
+
+	private static final AtomicLong fullHandshakes = new AtomicLong();
+	private static final AtomicLong resumedHandshakes = new AtomicLong();
+
+
+	private HandshakeStatistics() {
+	}
+
+
+	/**
+	 * Record a completed handshake.
+	 *
+	 * @param session the session negotiated by the handshake
+	 * @param connectionStarted the time at which the connection was opened, in milliseconds
+	 * @return true if the session was resumed from a previous connection
+	 */
+	static boolean handshakeCompleted(SSLSession session, long connectionStarted) {
+		/* A resumed session was created during an earlier handshake, before this connection was opened */
+		boolean resumed = session.getCreationTime() < connectionStarted;
+		if (resumed) resumedHandshakes.incrementAndGet();
+		else fullHandshakes.incrementAndGet();
+		return resumed;
+	}
+
+
+	/**
+	 * Get the number of full handshakes performed.
+	 *
+	 * @return a number of handshakes
+	 */
+	public static long getFullHandshakes() {
+		return fullHandshakes.get();
+	}
+
+
+	/**
+	 * Get the number of handshakes which resumed a previous TLS session.
+	 *
+	 * @return a number of handshakes
+	 */
+	public static long getResumedHandshakes() {
+		return resumedHandshakes.get();
+	}
+
+
+	/**
+	 * Reset all counters to zero.
+	 */
+	public static void reset() {
+		fullHandshakes.set(0);
+		resumedHandshakes.set(0);
+	}
+
+}
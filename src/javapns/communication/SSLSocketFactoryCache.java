@@ -0,0 +1,288 @@
+package javapns.communication;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+import javapns.communication.exceptions.*;
+
+import javax.net.ssl.*;
+
+/**
+ * Process-wide cache of keystores and SSLSocketFactory objects.
+ *
+ * <p>Loading a keystore (especially a PKCS12 file) and initializing a KeyManagerFactory and SSLContext
+ * is expensive.  Without caching, every connection to Apple pays that cost again, which adds up quickly
+ * when many threads open connections with the same certificate or when connections are restarted often.
+ * This cache loads each keystore once and hands out a single SSLSocketFactory per keystore, password
+ * and type, shared by all connections using that certificate.</p>
+ *
+ * <p>Keystores are identified by their file path (for File or String references), or by the identity of
+ * the byte[] array or KeyStore object provided.  Keystores loaded from a file are reloaded automatically
+ * if the file changes.  At most 64 keystores identified by a file and 16 keystores identified by an object
+ * are kept (the least recently used ones are discarded first), so that keystores provided as streams or
+ * new byte[] arrays for every push do not accumulate.  Entries can also be discarded using the
+ * invalidate(..) or clear() methods.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class SSLSocketFactoryCache {
+
+	/* Maximum number of keystores identified by a file path kept in the cache */
+	private static final int MAXIMUM_FILE_ENTRIES = 64;
+
+	/* Maximum number of keystores identified by an object (byte[], KeyStore, etc.) kept in the cache */
+	private static final int MAXIMUM_IDENTITY_ENTRIES = 16;
+
+	/* Keystores identified by a file path, least recently used first */
+	private static final Map<CacheKey, CachedKeystore> keystores = new LeastRecentlyUsedMap(MAXIMUM_FILE_ENTRIES);
+
+	/* Keystores identified by an object, least recently used first */
+	private static final Map<CacheKey, CachedKeystore> identityKeystores = new LeastRecentlyUsedMap(MAXIMUM_IDENTITY_ENTRIES);
+
+	private static volatile boolean enabled = true;
+
+
+	private SSLSocketFactoryCache() {
+	}
+
+
+	/**
+	 * Get the keystore for a server, loading it only if it is not cached yet or if its file has changed.
+	 *
+	 * @param server the server the keystore is intended for
+	 * @return a loaded keystore
+	 * @throws KeystoreException thrown if an error occurs when loading the keystore
+	 */
+	static KeyStore getKeystore(AppleServer server) throws KeystoreException {
+		if (!enabled) return KeystoreManager.loadKeystore(server);
+		return getCachedKeystore(server).keystore;
+	}
+
+
+	/**
+	 * Get the SSLSocketFactory for a connection, creating it only if none is cached yet for the
+	 * connection's keystore and type of connection.  Connections using a keystore which did not
+	 * come from this cache get a new SSLSocketFactory.
+	 *
+	 * @param connection a connection to an Apple server
+	 * @return a SSLSocketFactory
+	 * @throws KeystoreException thrown if an error occurs when creating the SSLSocketFactory
+	 */
+	static SSLSocketFactory getSocketFactory(ConnectionToAppleServer connection) throws KeystoreException {
+		if (!enabled) return connection.createSSLSocketFactory();
+		CachedKeystore cached = findCachedKeystore(new CacheKey(connection.getServer()));
+		if (cached == null || cached.keystore != connection.getKeystore()) return connection.createSSLSocketFactory();
+		synchronized (cached) {
+			String factoryKey = connection.getClass().getName();
+			SSLSocketFactory factory = cached.socketFactories.get(factoryKey);
+			if (factory == null) {
+				factory = connection.createSSLSocketFactory();
+				cached.socketFactories.put(factoryKey, factory);
+			}
+			return factory;
+		}
+	}
+
+
+	/**
+	 * Get the SSLContext for a connection, creating it only if none is cached yet for the
+	 * connection's keystore and type of connection.  Connections using a keystore which did not
+	 * come from this cache get a new SSLContext.
+	 *
+	 * @param connection a connection to an Apple server
+	 * @return a SSLContext
+	 * @throws KeystoreException thrown if an error occurs when creating the SSLContext
+	 */
+	static SSLContext getSSLContext(ConnectionToAppleServer connection) throws KeystoreException {
+		if (!enabled) return connection.createSSLContext();
+		CachedKeystore cached = findCachedKeystore(new CacheKey(connection.getServer()));
+		if (cached == null || cached.keystore != connection.getKeystore()) return connection.createSSLContext();
+		synchronized (cached) {
+			String contextKey = connection.getClass().getName();
+			SSLContext context = cached.sslContexts.get(contextKey);
+			if (context == null) {
+				context = connection.createSSLContext();
+				cached.sslContexts.put(contextKey, context);
+			}
+			return context;
+		}
+	}
+
+
+	private static CachedKeystore getCachedKeystore(AppleServer server) throws KeystoreException {
+		CacheKey key = new CacheKey(server);
+		Map<CacheKey, CachedKeystore> map = getMap(key);
+		synchronized (keystores) {
+			CachedKeystore cached = map.get(key);
+			if (cached != null && !cached.isStale()) return cached;
+			cached = new CachedKeystore(KeystoreManager.loadKeystore(server), key.file);
+			map.put(key, cached);
+			return cached;
+		}
+	}
+
+
+	private static CachedKeystore findCachedKeystore(CacheKey key) {
+		synchronized (keystores) {
+			return getMap(key).get(key);
+		}
+	}
+
+
+	private static Map<CacheKey, CachedKeystore> getMap(CacheKey key) {
+		return key.file != null ? keystores : identityKeystores;
+	}
+
+
+	/**
+	 * Discard the cached keystore and SSLSocketFactory objects for a server.
+	 * They will be loaded again the next time a connection is opened to that server.
+	 *
+	 * @param server a server
+	 */
+	public static void invalidate(AppleServer server) {
+		CacheKey key = new CacheKey(server);
+		synchronized (keystores) {
+			getMap(key).remove(key);
+		}
+	}
+
+
+	/**
+	 * Discard all cached keystores and SSLSocketFactory objects.
+	 */
+	public static void clear() {
+		synchronized (keystores) {
+			keystores.clear();
+			identityKeystores.clear();
+		}
+	}
+
+
+	/**
+	 * Enable or disable caching.  When disabled, keystores are loaded and SSLSocketFactory objects
+	 * are created again for every connection, as in previous versions of the library.
+	 *
+	 * Default is true.
+	 *
+	 * @param enabled true to cache keystores and SSLSocketFactory objects
+	 */
+	public static void setEnabled(boolean enabled) {
+		SSLSocketFactoryCache.enabled = enabled;
+		if (!enabled) clear();
+	}
+
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+
+	/**
+	 * Identifies a keystore by its reference, password and type.
+	 * References other than file paths are compared by identity.
+	 */
+	private static class CacheKey {
+
+		private final Object reference;
+		private final File file;
+		private final String password;
+		private final String type;
+		private final int hash;
+
+
+		CacheKey(AppleServer server) {
+			Object reference = server instanceof AppleServerBasicImpl ? ((AppleServerBasicImpl) server).getKeystoreReference() : null;
+			if (reference instanceof String) reference = new File((String) reference);
+			if (reference instanceof File) {
+				this.file = ((File) reference).getAbsoluteFile();
+				reference = this.file.getPath();
+			} else {
+				this.file = null;
+			}
+			/* Keystores that cannot be identified by a reference are identified by the server object itself */
+			if (reference == null) reference = server;
+			this.password = server.getKeystorePassword();
+			this.type = server.getKeystoreType();
+			int referenceHash = reference instanceof String ? reference.hashCode() : System.identityHashCode(reference);
+			this.hash = referenceHash * 31 + (password != null ? password.hashCode() : 0);
+			this.reference = reference;
+		}
+
+
+		@Override
+		public boolean equals(Object object) {
+			if (object == this) return true;
+			if (!(object instanceof CacheKey)) return false;
+			CacheKey other = (CacheKey) object;
+			boolean sameReference = reference instanceof String ? reference.equals(other.reference) : reference == other.reference;
+			return sameReference && equal(password, other.password) && equal(type, other.type);
+		}
+
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+	}
+
+
+	/**
+	 * A map of cached keystores which discards its least recently used entry once it holds more than a maximum number of entries.
+	 */
+	private static class LeastRecentlyUsedMap extends LinkedHashMap<CacheKey, CachedKeystore> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int maximumEntries;
+
+
+		LeastRecentlyUsedMap(int maximumEntries) {
+			super(maximumEntries, 0.75f, true);
+			this.maximumEntries = maximumEntries;
+		}
+
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<CacheKey, CachedKeystore> eldest) {
+			return size() > maximumEntries;
+		}
+
+	}
+
+
+	/**
+	 * A loaded keystore and the SSLSocketFactory and SSLContext objects created with it, by type of connection.
+	 */
+	private static class CachedKeystore {
+
+		private final KeyStore keystore;
+		private final Map<String, SSLSocketFactory> socketFactories = new HashMap<String, SSLSocketFactory>();
+		private final Map<String, SSLContext> sslContexts = new HashMap<String, SSLContext>();
+		private final File file;
+		private final long lastModified;
+		private final long length;
+
+
+		CachedKeystore(KeyStore keystore, File file) {
+			this.keystore = keystore;
+			this.file = file;
+			this.lastModified = file != null ? file.lastModified() : 0;
+			this.length = file != null ? file.length() : 0;
+		}
+
+
+		boolean isStale() {
+			return file != null && (file.lastModified() != lastModified || file.length() != length);
+		}
+
+	}
+
+}
@@ -89,6 +89,11 @@ public class JSONArray {
      */
     private ArrayList myArrayList;
 
+    /**
+     * Once frozen, any attempt to change this JSONArray is rejected.
+     */
+    private boolean frozen = false;
+
 
     /**
      * Construct an empty JSONArray.
@@ -404,6 +409,43 @@ public class JSONArray {
     }
 
 
+    /**
+     * Freeze this JSONArray and every JSONObject and JSONArray it contains,
+     * so that any further attempt to change them throws an IllegalStateException.
+     * @return this.
+     */
+    public JSONArray freeze() {
+        if (this.frozen) {
+            return this;
+        }
+        this.frozen = true;
+        for (int i = 0; i < this.myArrayList.size(); i++) {
+            Object value = this.myArrayList.get(i);
+            Object frozenValue = JSONObject.freezeValue(value);
+            if (frozenValue != value) {
+                this.myArrayList.set(i, frozenValue);
+            }
+        }
+        return this;
+    }
+
+
+    /**
+     * Determine if this JSONArray is frozen.
+     * @return true if this JSONArray rejects changes.
+     */
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new IllegalStateException("JSONArray is frozen.");
+        }
+    }
+
+
     /**
      * Get the number of elements in the JSONArray, included nulls.
      *
@@ -684,6 +726,7 @@ public class JSONArray {
      * @return this.
      */
     public JSONArray put(Object value) {
+        checkNotFrozen();
         this.myArrayList.add(value);
         return this;
     }
@@ -797,6 +840,7 @@ public class JSONArray {
         if (index < 0) {
             throw new JSONException("JSONArray[" + index + "] not found.");
         }
+        checkNotFrozen();
         if (index < length()) {
             this.myArrayList.set(index, value);
         } else {
@@ -816,6 +860,7 @@ public class JSONArray {
      * or null if there was no value.
      */
     public Object remove(int index) {
+        checkNotFrozen();
     	Object o = opt(index);
         this.myArrayList.remove(index);
         return o;
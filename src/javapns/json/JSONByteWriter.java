@@ -0,0 +1,456 @@
+package javapns.json;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>Serializes a JSONObject or JSONArray directly into a reusable buffer of UTF-8 bytes.</p>
+ *
+ * <p>The text produced is identical to <code>toString().getBytes("UTF-8")</code>, but it is
+ * obtained in a single walk of the tree, without building intermediate strings.  Characters
+ * are escaped using a lookup table, numbers are written digit by digit, and the buffer is
+ * kept from one serialization to the next, so that serializing a tree does not allocate
+ * anything once the buffer has grown to the size of the largest text written.</p>
+ *
+ * <p>A writer is not thread-safe.  Each thread should use its own writer.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class JSONByteWriter {
+
+	/* Initial capacity of the buffer, large enough for any APNS payload */
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+	private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+	private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+	/* Maps an ASCII character to 0 if it is written as is, to the letter following the backslash if it is escaped, or to 'u' if it is written as a \\u sequence */
+	private static final byte[] ESCAPES = new byte[128];
+
+	static {
+		for (int c = 0; c < ' '; c++)
+			ESCAPES[c] = 'u';
+		ESCAPES['\b'] = 'b';
+		ESCAPES['\t'] = 't';
+		ESCAPES['\n'] = 'n';
+		ESCAPES['\f'] = 'f';
+		ESCAPES['\r'] = 'r';
+		ESCAPES['"'] = '"';
+		ESCAPES['\\'] = '\\';
+	}
+
+	private byte[] buffer;
+	private int size = 0;
+
+
+	/**
+	 * Create a writer with a default buffer capacity.
+	 */
+	public JSONByteWriter() {
+		this(DEFAULT_CAPACITY);
+	}
+
+
+	/**
+	 * Create a writer with a specific initial buffer capacity.
+	 * The buffer grows automatically if a larger text needs to be written.
+	 *
+	 * @param capacity the initial capacity of the buffer
+	 */
+	public JSONByteWriter(int capacity) {
+		this.buffer = new byte[Math.max(16, capacity)];
+	}
+
+
+	/**
+	 * Discard the content of the buffer, so that a new text can be written.
+	 */
+	public void reset() {
+		size = 0;
+	}
+
+
+	/**
+	 * Get the number of bytes written since the last reset.
+	 *
+	 * @return a number of bytes
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Get the buffer holding the bytes written.  Only the first size() bytes are meaningful.
+	 * The buffer is reused (and possibly replaced) by subsequent writes, so its content is
+	 * only valid until then.
+	 *
+	 * @return the internal buffer
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+
+	/**
+	 * Copy the bytes written since the last reset into a new array.
+	 *
+	 * @return an array of size() bytes
+	 */
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[size];
+		System.arraycopy(buffer, 0, bytes, 0, size);
+		return bytes;
+	}
+
+
+	/**
+	 * Serialize a JSONObject at the end of the buffer.
+	 *
+	 * @param object the JSONObject to serialize
+	 * @return the number of bytes in the buffer
+	 * @throws JSONException if the object contains an invalid number
+	 */
+	public int write(JSONObject object) throws JSONException {
+		writeObject(object.entries());
+		return size;
+	}
+
+
+	/**
+	 * Serialize a JSONArray at the end of the buffer.
+	 *
+	 * @param array the JSONArray to serialize
+	 * @return the number of bytes in the buffer
+	 * @throws JSONException if the array contains an invalid number
+	 */
+	public int write(JSONArray array) throws JSONException {
+		writeArray(array);
+		return size;
+	}
+
+
+	/**
+	 * Serialize a name/value pair, as it would appear in a JSONObject, at the end of the buffer.
+	 * This can be used to measure how many bytes a property adds to an object.
+	 *
+	 * @param name the name of the property
+	 * @param value the value of the property
+	 * @return the number of bytes in the buffer
+	 * @throws JSONException if the value is or contains an invalid number
+	 */
+	public int writeEntry(String name, Object value) throws JSONException {
+		writeString(name);
+		ensureCapacity(1);
+		buffer[size++] = ':';
+		writeValue(value);
+		return size;
+	}
+
+
+	/**
+	 * Append bytes that are already serialized at the end of the buffer.
+	 *
+	 * @param bytes an array of bytes
+	 * @param offset the offset of the first byte to append
+	 * @param length the number of bytes to append
+	 * @return the number of bytes in the buffer
+	 */
+	public int write(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+		return size;
+	}
+
+
+	private void writeObject(Iterator<?> entries) throws JSONException {
+		ensureCapacity(1);
+		buffer[size++] = '{';
+		boolean first = true;
+		while (entries.hasNext()) {
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) entries.next();
+			if (!first) {
+				ensureCapacity(1);
+				buffer[size++] = ',';
+			}
+			writeString(entry.getKey().toString());
+			ensureCapacity(1);
+			buffer[size++] = ':';
+			writeValue(entry.getValue());
+			first = false;
+		}
+		ensureCapacity(1);
+		buffer[size++] = '}';
+	}
+
+
+	private void writeArray(JSONArray array) throws JSONException {
+		ensureCapacity(1);
+		buffer[size++] = '[';
+		int length = array.length();
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				ensureCapacity(1);
+				buffer[size++] = ',';
+			}
+			writeValue(array.opt(i));
+		}
+		ensureCapacity(1);
+		buffer[size++] = ']';
+	}
+
+
+	private void writeCollection(Iterator<?> values) throws JSONException {
+		ensureCapacity(1);
+		buffer[size++] = '[';
+		boolean first = true;
+		while (values.hasNext()) {
+			if (!first) {
+				ensureCapacity(1);
+				buffer[size++] = ',';
+			}
+			writeValue(values.next());
+			first = false;
+		}
+		ensureCapacity(1);
+		buffer[size++] = ']';
+	}
+
+
+	/**
+	 * Serialize a value the same way JSONObject.valueToString(Object) does.
+	 */
+	private void writeValue(Object value) throws JSONException {
+		if (value == null || value.equals(null)) {
+			write(NULL, 0, NULL.length);
+		} else if (value instanceof JSONRawValue) {
+			writeRaw(value.toString());
+		} else if (value instanceof JSONString) {
+			Object o;
+			try {
+				o = ((JSONString) value).toJSONString();
+			} catch (Exception e) {
+				throw new JSONException(e);
+			}
+			if (!(o instanceof String)) {
+				throw new JSONException("Bad value from toJSONString: " + o);
+			}
+			writeRaw((String) o);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			writeLong(((Number) value).longValue());
+		} else if (value instanceof Number) {
+			writeRaw(JSONObject.numberToString((Number) value));
+		} else if (value instanceof Boolean) {
+			byte[] literal = ((Boolean) value).booleanValue() ? TRUE : FALSE;
+			write(literal, 0, literal.length);
+		} else if (value instanceof JSONObject) {
+			writeObject(((JSONObject) value).entries());
+		} else if (value instanceof JSONArray) {
+			writeArray((JSONArray) value);
+		} else if (value instanceof Map) {
+			writeObject(((Map) value).entrySet().iterator());
+		} else if (value instanceof Collection) {
+			writeCollection(((Collection<?>) value).iterator());
+		} else if (value.getClass().isArray()) {
+			writeArray(new JSONArray(value));
+		} else {
+			writeString(value.toString());
+		}
+	}
+
+
+	private void writeLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			writeRaw(Long.toString(value));
+			return;
+		}
+		ensureCapacity(20);
+		if (value < 0) {
+			buffer[size++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10)
+			digits++;
+		for (int i = size + digits - 1; i >= size; i--) {
+			buffer[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		size += digits;
+	}
+
+
+	/**
+	 * Get the number of bytes a string occupies once escaped and encoded in UTF-8, not counting the quotes around it.
+	 *
+	 * @param string a string
+	 * @return a number of bytes
+	 */
+	public static int stringLength(String string) {
+		return (int) measureString(string, Integer.MAX_VALUE);
+	}
+
+
+	/**
+	 * Find how many characters of a string fit in a number of bytes once escaped and encoded in UTF-8,
+	 * not counting the quotes around it.  Escape sequences and surrogate pairs are never split.
+	 *
+	 * @param string a string
+	 * @param maximumBytes the number of bytes available
+	 * @return the length of the longest prefix of the string that fits, which may be the whole string or zero
+	 */
+	public static int fitString(String string, int maximumBytes) {
+		return (int) (measureString(string, maximumBytes) >>> 32);
+	}
+
+
+	/**
+	 * Measure the longest prefix of a string which fits in a number of bytes, applying the same rules as writeString(String).
+	 *
+	 * @return the number of characters in the prefix in the high 32 bits, and its number of bytes in the low 32 bits
+	 */
+	private static long measureString(String string, int maximumBytes) {
+		int length = string.length();
+		int bytes = 0;
+		char previous = 0;
+		int i = 0;
+		while (i < length) {
+			char c = string.charAt(i);
+			int chars = 1;
+			int n;
+			if (c < 0x80) {
+				byte escape = ESCAPES[c];
+				if (escape == 0) n = (c == '/' && previous == '<') ? 2 : 1;
+				else n = escape == 'u' ? 6 : 2;
+			} else if (c < 0xA0 || (c >= 0x2000 && c < 0x2100)) {
+				n = 6;
+			} else if (c < 0x800) {
+				n = 2;
+			} else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+				n = 3;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+				n = 4;
+				chars = 2;
+			} else {
+				n = 1;
+			}
+			if (bytes + n > maximumBytes) break;
+			bytes += n;
+			i += chars;
+			previous = string.charAt(i - 1);
+		}
+		return ((long) i << 32) | bytes;
+	}
+
+
+	/**
+	 * Write a string between quotes, escaping characters exactly as JSONObject.quote(String) does.
+	 */
+	private void writeString(String string) {
+		int length = string.length();
+		/* Worst case is 6 bytes per character (\\uXXXX), plus quotes */
+		ensureCapacity(length * 6 + 2);
+		byte[] b = buffer;
+		int s = size;
+		b[s++] = '"';
+		char previous = 0;
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (c < 0x80) {
+				byte escape = ESCAPES[c];
+				if (escape == 0) {
+					if (c == '/' && previous == '<') b[s++] = '\\';
+					b[s++] = (byte) c;
+				} else if (escape == 'u') {
+					s = writeUnicodeEscape(b, s, c);
+				} else {
+					b[s++] = '\\';
+					b[s++] = escape;
+				}
+			} else if (c < 0xA0 || (c >= 0x2000 && c < 0x2100)) {
+				s = writeUnicodeEscape(b, s, c);
+			} else {
+				s = writeUtf8(b, s, string, i, c);
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) c = string.charAt(++i);
+			}
+			previous = c;
+		}
+		b[s++] = '"';
+		size = s;
+	}
+
+
+	/**
+	 * Write a string which is already valid JSON, without quotes or escaping.
+	 */
+	private void writeRaw(String string) {
+		int length = string.length();
+		ensureCapacity(length * 3);
+		byte[] b = buffer;
+		int s = size;
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (c < 0x80) {
+				b[s++] = (byte) c;
+			} else {
+				s = writeUtf8(b, s, string, i, c);
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) i++;
+			}
+		}
+		size = s;
+	}
+
+
+	private static int writeUnicodeEscape(byte[] b, int s, char c) {
+		b[s++] = '\\';
+		b[s++] = 'u';
+		b[s++] = HEX_DIGITS[(c >> 12) & 0xF];
+		b[s++] = HEX_DIGITS[(c >> 8) & 0xF];
+		b[s++] = HEX_DIGITS[(c >> 4) & 0xF];
+		b[s++] = HEX_DIGITS[c & 0xF];
+		return s;
+	}
+
+
+	/**
+	 * Encode a non-ASCII character in UTF-8.  A surrogate pair is encoded as a single 4-byte sequence,
+	 * and a lone surrogate is replaced by '?', as String.getBytes("UTF-8") does.
+	 */
+	private static int writeUtf8(byte[] b, int s, String string, int i, char c) {
+		if (c < 0x800) {
+			b[s++] = (byte) (0xC0 | (c >> 6));
+			b[s++] = (byte) (0x80 | (c & 0x3F));
+		} else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+			b[s++] = (byte) (0xE0 | (c >> 12));
+			b[s++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			b[s++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+			int codePoint = Character.toCodePoint(c, string.charAt(i + 1));
+			b[s++] = (byte) (0xF0 | (codePoint >> 18));
+			b[s++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+			b[s++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+			b[s++] = (byte) (0x80 | (codePoint & 0x3F));
+		} else {
+			b[s++] = '?';
+		}
+		return s;
+	}
+
+
+	private void ensureCapacity(int additional) {
+		int required = size + additional;
+		if (required <= buffer.length) return;
+		int capacity = buffer.length;
+		while (capacity < required)
+			capacity *= 2;
+		byte[] grown = new byte[capacity];
+		System.arraycopy(buffer, 0, grown, 0, size);
+		buffer = grown;
+	}
+
+}
@@ -30,8 +30,8 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Method;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeSet;
 
@@ -63,7 +63,9 @@ import java.util.TreeSet;
  * produces the string <code>{"JSON": "Hello, World"}</code>.
  * <p>
  * The texts produced by the <code>toString</code> methods strictly conform to
- * the JSON syntax rules.
+ * the JSON syntax rules.  Names are written in the order they were first added,
+ * unless the JSONObject was constructed from a Map, in which case the Map's own
+ * iteration order is used.
  * The constructors are more forgiving in the texts they will accept:
  * <ul>
  * <li>An extra <code>,</code>&nbsp;<small>(comma)</small> may appear just
@@ -127,10 +129,16 @@ public class JSONObject {
 	}
 
 	/**
-	 * The map where the JSONObject's properties are kept.
+	 * The map where the JSONObject's properties are kept.  Small objects are
+	 * backed by a SmallMap, which is replaced by a LinkedHashMap as they grow.
 	 */
 	private Map map;
 
+	/**
+	 * Once frozen, any attempt to change this JSONObject is rejected.
+	 */
+	private boolean frozen = false;
+
 	/**
 	 * It is sometimes more convenient and less ambiguous to have a
 	 * <code>NULL</code> object than to use Java's <code>null</code> value.
@@ -144,7 +152,7 @@ public class JSONObject {
 	 * Construct an empty JSONObject.
 	 */
 	public JSONObject() {
-		this.map = new HashMap();
+		this.map = new SmallMap();
 	}
 
 
@@ -232,7 +240,7 @@ public class JSONObject {
 	 *  the JSONObject.
 	 */
 	public JSONObject(Map map) {
-		this.map = (map == null) ? new HashMap() : map;
+		this.map = (map == null) ? new SmallMap() : map;
 	}
 
 
@@ -245,7 +253,7 @@ public class JSONObject {
 	 * @param includeSuperClass - Tell whether to include the super class properties.
 	 */
 	public JSONObject(Map map, boolean includeSuperClass) {
-		this.map = new HashMap();
+		this.map = new SmallMap();
 		if (map != null) {
 			Iterator i = map.entrySet().iterator();
 			while (i.hasNext()) {
@@ -256,6 +264,7 @@ public class JSONObject {
 					this.map.put(e.getKey(), new JSONObject(e.getValue(), includeSuperClass));
 				}
 			}
+			growIfLarge();
 		}
 	}
 
@@ -359,6 +368,7 @@ public class JSONObject {
 				throw new RuntimeException(e);
 			}
 		}
+		growIfLarge();
 	}
 
 
@@ -687,6 +697,17 @@ public class JSONObject {
 	}
 
 
+	/**
+	 * Get an enumeration of the entries of the JSONObject, for serializers
+	 * which need both keys and values without looking each key up.
+	 *
+	 * @return An iterator of Map.Entry objects.
+	 */
+	Iterator<?> entries() {
+		return this.map.entrySet().iterator();
+	}
+
+
 	/**
 	 * Get the number of keys stored in the JSONObject.
 	 *
@@ -1035,9 +1056,11 @@ public class JSONObject {
 		if (key == null) {
 			throw new JSONException("Null key.");
 		}
+		checkNotFrozen();
 		if (value != null) {
 			testValidity(value);
 			this.map.put(key, value);
+			growIfLarge();
 		} else {
 			remove(key);
 		}
@@ -1045,6 +1068,17 @@ public class JSONObject {
 	}
 
 
+	/**
+	 * Replace a SmallMap which holds too many keys for linear lookups
+	 * by a LinkedHashMap, which keeps the same order.
+	 */
+	private void growIfLarge() {
+		if (this.map instanceof SmallMap && this.map.size() > SmallMap.MAXIMUM_SIZE) {
+			this.map = new LinkedHashMap<Object, Object>(this.map);
+		}
+	}
+
+
 	/**
 	 * Put a key/value pair in the JSONObject, but only if the key and the
 	 * value are both non-null, and only if there is not already a member
@@ -1155,10 +1189,83 @@ public class JSONObject {
 	 * or null if there was no value.
 	 */
 	public Object remove(String key) {
+		checkNotFrozen();
 		return this.map.remove(key);
 	}
 
 
+	/**
+	 * Freeze this JSONObject and every JSONObject and JSONArray it contains,
+	 * so that any further attempt to change them throws an IllegalStateException.
+	 * A frozen JSONObject can be read by many threads without locking, provided
+	 * that it was safely published to them after being frozen.
+	 * @return this.
+	 */
+	public JSONObject freeze() {
+		if (this.frozen) {
+			return this;
+		}
+		this.frozen = true;
+		Iterator<?> i = this.map.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry<Object, Object> e = (Map.Entry<Object, Object>) i.next();
+			Object value = e.getValue();
+			Object frozenValue = freezeValue(value);
+			if (frozenValue != value) {
+				e.setValue(frozenValue);
+			}
+		}
+		return this;
+	}
+
+
+	/**
+	 * Determine if this JSONObject is frozen.
+	 * @return true if this JSONObject rejects changes.
+	 */
+	public boolean isFrozen() {
+		return this.frozen;
+	}
+
+
+	/**
+	 * Freeze a value contained in a JSONObject or a JSONArray.  Maps, collections
+	 * and arrays, which would remain mutable, are copied into frozen JSONObjects
+	 * and JSONArrays which serialize to the same text.
+	 * @param value A value contained in a JSONObject or a JSONArray.
+	 * @return The value itself, or a frozen copy of it.
+	 */
+	static Object freezeValue(Object value) {
+		if (value instanceof JSONObject) {
+			return ((JSONObject) value).freeze();
+		}
+		if (value instanceof JSONArray) {
+			return ((JSONArray) value).freeze();
+		}
+		if (value instanceof Map) {
+			return new JSONObject(new LinkedHashMap<Object, Object>((Map<?, ?>) value)).freeze();
+		}
+		if (value instanceof Collection) {
+			return new JSONArray((Collection<?>) value).freeze();
+		}
+		if (value != null && value.getClass().isArray()) {
+			try {
+				return new JSONArray(value).freeze();
+			} catch (JSONException e) {
+				/* Not possible, value is an array */
+			}
+		}
+		return value;
+	}
+
+
+	private void checkNotFrozen() {
+		if (this.frozen) {
+			throw new IllegalStateException("JSONObject is frozen.");
+		}
+	}
+
+
 	/**
 	 * Get an enumeration of the keys of the JSONObject.
 	 * The keys will be sorted alphabetically.
@@ -0,0 +1,636 @@
+package javapns.json;
+
+import java.io.UnsupportedEncodingException;
+import java.util.*;
+
+/**
+ * <p>A strict, single-pass JSON parser working directly on a String or on UTF-8 bytes.</p>
+ *
+ * <p>Unlike JSONTokener, which reads characters one at a time from a Reader and
+ * backtracks, this parser indexes into its input and extracts strings without
+ * escape sequences as substrings.  It produces the same kinds of values as
+ * JSONTokener (Boolean, Integer, Long, Double, String, JSONObject.NULL,
+ * JSONObject and JSONArray), but only accepts standard JSON:  names must be
+ * quoted with double quotes, and none of the extensions tolerated by
+ * JSONTokener (single quotes, unquoted strings, '=' or ';' separators,
+ * hexadecimal numbers) are supported.</p>
+ *
+ * <p>The {@link #validateObject(byte[], int, int)} method checks that bytes
+ * hold a well-formed JSON object encoded in UTF-8 without building any tree,
+ * for callers which only need to know that the bytes can be sent as is.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class JSONParser {
+
+	/* Maximum depth of nested objects and arrays, to fail cleanly on hostile input instead of overflowing the stack */
+	private static final int MAXIMUM_DEPTH = 256;
+
+	private final String text;
+	private final int end;
+	private int index;
+	private int depth = 0;
+
+
+	private JSONParser(String text) {
+		this.text = text;
+		this.end = text.length();
+		this.index = 0;
+	}
+
+
+	/**
+	 * Parse a JSON object.
+	 *
+	 * @param text a JSON text beginning with '{' and ending with '}'
+	 * @return a JSONObject
+	 * @throws JSONException if the text is not a well-formed JSON object or contains a duplicated name
+	 */
+	public static JSONObject parseObject(String text) throws JSONException {
+		JSONParser parser = new JSONParser(text);
+		parser.skipWhitespace();
+		if (parser.peek() != '{') throw parser.syntaxError("A JSONObject text must begin with '{'");
+		JSONObject object = parser.nextObject();
+		parser.expectEnd();
+		return object;
+	}
+
+
+	/**
+	 * Parse a JSON object encoded in UTF-8.
+	 *
+	 * @param bytes an array containing the JSON text
+	 * @param offset the offset of the text in the array
+	 * @param length the length of the text in bytes
+	 * @return a JSONObject
+	 * @throws JSONException if the text is not a well-formed JSON object or contains a duplicated name
+	 */
+	public static JSONObject parseObject(byte[] bytes, int offset, int length) throws JSONException {
+		return parseObject(decode(bytes, offset, length));
+	}
+
+
+	/**
+	 * Parse a JSON array.
+	 *
+	 * @param text a JSON text beginning with '[' and ending with ']'
+	 * @return a JSONArray
+	 * @throws JSONException if the text is not a well-formed JSON array
+	 */
+	public static JSONArray parseArray(String text) throws JSONException {
+		JSONParser parser = new JSONParser(text);
+		parser.skipWhitespace();
+		if (parser.peek() != '[') throw parser.syntaxError("A JSONArray text must start with '['");
+		JSONArray array = parser.nextArray();
+		parser.expectEnd();
+		return array;
+	}
+
+
+	/**
+	 * Parse a JSON array encoded in UTF-8.
+	 *
+	 * @param bytes an array containing the JSON text
+	 * @param offset the offset of the text in the array
+	 * @param length the length of the text in bytes
+	 * @return a JSONArray
+	 * @throws JSONException if the text is not a well-formed JSON array
+	 */
+	public static JSONArray parseArray(byte[] bytes, int offset, int length) throws JSONException {
+		return parseArray(decode(bytes, offset, length));
+	}
+
+
+	private static String decode(byte[] bytes, int offset, int length) throws JSONException {
+		validateUTF8(bytes, offset, length);
+		try {
+			return new String(bytes, offset, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new JSONException(e);
+		}
+	}
+
+
+	private char peek() {
+		return index < end ? text.charAt(index) : 0;
+	}
+
+
+	private void skipWhitespace() {
+		while (index < end) {
+			char c = text.charAt(index);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') return;
+			index++;
+		}
+	}
+
+
+	private void expectEnd() throws JSONException {
+		skipWhitespace();
+		if (index < end) throw syntaxError("Unexpected text after the end of the JSON value");
+	}
+
+
+	private Object nextValue() throws JSONException {
+		skipWhitespace();
+		char c = peek();
+		switch (c) {
+			case '{':
+				return nextObject();
+			case '[':
+				return nextArray();
+			case '"':
+				return nextString();
+			case 't':
+				expectLiteral("true");
+				return Boolean.TRUE;
+			case 'f':
+				expectLiteral("false");
+				return Boolean.FALSE;
+			case 'n':
+				expectLiteral("null");
+				return JSONObject.NULL;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) return nextNumber();
+				throw syntaxError(index < end ? "Unexpected character '" + c + "'" : "Missing value");
+		}
+	}
+
+
+	private JSONObject nextObject() throws JSONException {
+		enter();
+		index++;
+		JSONObject object = new JSONObject();
+		skipWhitespace();
+		if (peek() == '}') {
+			index++;
+			depth--;
+			return object;
+		}
+		for (;;) {
+			skipWhitespace();
+			if (peek() != '"') throw syntaxError("Expected a quoted name");
+			String key = nextString();
+			skipWhitespace();
+			if (peek() != ':') throw syntaxError("Expected a ':' after a key");
+			index++;
+			object.putOnce(key, nextValue());
+			skipWhitespace();
+			char c = peek();
+			index++;
+			if (c == '}') break;
+			if (c != ',') throw syntaxError("Expected a ',' or '}'");
+		}
+		depth--;
+		return object;
+	}
+
+
+	private JSONArray nextArray() throws JSONException {
+		enter();
+		index++;
+		JSONArray array = new JSONArray();
+		skipWhitespace();
+		if (peek() == ']') {
+			index++;
+			depth--;
+			return array;
+		}
+		for (;;) {
+			array.put(nextValue());
+			skipWhitespace();
+			char c = peek();
+			index++;
+			if (c == ']') break;
+			if (c != ',') throw syntaxError("Expected a ',' or ']'");
+		}
+		depth--;
+		return array;
+	}
+
+
+	private void enter() throws JSONException {
+		if (++depth > MAXIMUM_DEPTH) throw syntaxError("Too many nested objects or arrays");
+	}
+
+
+	/**
+	 * Read a quoted string.  Strings without escape sequences are extracted with a single substring.
+	 */
+	private String nextString() throws JSONException {
+		int start = ++index;
+		while (index < end) {
+			char c = text.charAt(index);
+			if (c == '"') return text.substring(start, index++);
+			if (c == '\\') break;
+			if (c < ' ') throw syntaxError("Unescaped control character in string");
+			index++;
+		}
+		StringBuilder sb = new StringBuilder(index - start + 16);
+		sb.append(text, start, index);
+		while (index < end) {
+			char c = text.charAt(index++);
+			if (c == '"') return sb.toString();
+			if (c < ' ') throw syntaxError("Unescaped control character in string");
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (index >= end) break;
+			c = text.charAt(index++);
+			switch (c) {
+				case 'b':
+					sb.append('\b');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 'u':
+					if (index + 4 > end) throw syntaxError("Illegal escape.");
+					int value = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = hexValue(text.charAt(index++));
+						if (digit < 0) throw syntaxError("Illegal escape.");
+						value = (value << 4) | digit;
+					}
+					sb.append((char) value);
+					break;
+				case '"':
+				case '\\':
+				case '/':
+					sb.append(c);
+					break;
+				default:
+					throw syntaxError("Illegal escape.");
+			}
+		}
+		throw syntaxError("Unterminated string");
+	}
+
+
+	/**
+	 * Read a number.  Integers of up to 18 digits are converted directly; other numbers
+	 * are converted by JSONObject.stringToValue(String), exactly as JSONTokener does.
+	 */
+	private Object nextNumber() throws JSONException {
+		int start = index;
+		boolean negative = peek() == '-';
+		if (negative) index++;
+		int digitsStart = index;
+		long value = 0;
+		while (index < end) {
+			char c = text.charAt(index);
+			if (c < '0' || c > '9') break;
+			value = value * 10 + (c - '0');
+			index++;
+		}
+		int digits = index - digitsStart;
+		if (digits == 0) throw syntaxError("Missing digits in number");
+		if (digits > 1 && text.charAt(digitsStart) == '0') throw syntaxError("Leading zeros are not allowed in numbers");
+		boolean integral = true;
+		if (peek() == '.') {
+			integral = false;
+			index++;
+			if (skipDigits() == 0) throw syntaxError("Missing digits after decimal point");
+		}
+		char c = peek();
+		if (c == 'e' || c == 'E') {
+			integral = false;
+			index++;
+			c = peek();
+			if (c == '+' || c == '-') index++;
+			if (skipDigits() == 0) throw syntaxError("Missing digits in exponent");
+		}
+		if (integral && digits <= 18) {
+			if (negative) value = -value;
+			if (value == (int) value) return Integer.valueOf((int) value);
+			return Long.valueOf(value);
+		}
+		return JSONObject.stringToValue(text.substring(start, index));
+	}
+
+
+	private static int hexValue(int c) {
+		if (c >= '0' && c <= '9') return c - '0';
+		if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+		if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+		return -1;
+	}
+
+
+	private int skipDigits() {
+		int start = index;
+		while (index < end) {
+			char c = text.charAt(index);
+			if (c < '0' || c > '9') break;
+			index++;
+		}
+		return index - start;
+	}
+
+
+	private void expectLiteral(String literal) throws JSONException {
+		if (!text.startsWith(literal, index)) throw syntaxError("Unexpected character '" + peek() + "'");
+		index += literal.length();
+	}
+
+
+	private JSONException syntaxError(String message) {
+		return new JSONException(message + " at character " + index);
+	}
+
+
+	/**
+	 * <p>Check that bytes hold a single well-formed JSON object encoded in UTF-8, without building any object.</p>
+	 *
+	 * <p>The same syntax as parseObject(..) is accepted, and every string must be valid UTF-8.
+	 * As with parseObject(..), an object may not contain the same name twice.</p>
+	 *
+	 * @param bytes an array containing the JSON text
+	 * @param offset the offset of the text in the array
+	 * @param length the length of the text in bytes
+	 * @throws JSONException if the bytes are not a well-formed JSON object
+	 */
+	public static void validateObject(byte[] bytes, int offset, int length) throws JSONException {
+		new Validator(bytes, offset, length).validateObject();
+	}
+
+
+	/**
+	 * Check that bytes are valid UTF-8, rejecting overlong forms and surrogates.
+	 */
+	private static void validateUTF8(byte[] bytes, int offset, int length) throws JSONException {
+		int end = offset + length;
+		for (int i = offset; i < end;) {
+			if (bytes[i] >= 0) {
+				i++;
+				continue;
+			}
+			int next = Validator.skipMultiByteCharacter(bytes, i, end);
+			if (next < 0) throw new JSONException("Invalid UTF-8 sequence at byte " + (i - offset));
+			i = next;
+		}
+	}
+
+
+	/**
+	 * Walks JSON text encoded in UTF-8, checking its syntax without creating any object.
+	 */
+	private static class Validator {
+
+		private final byte[] bytes;
+		private final int offset;
+		private final int end;
+		private int index;
+		private int depth = 0;
+
+
+		Validator(byte[] bytes, int offset, int length) {
+			this.bytes = bytes;
+			this.offset = offset;
+			this.end = offset + length;
+			this.index = offset;
+		}
+
+
+		void validateObject() throws JSONException {
+			skipWhitespace();
+			if (peek() != '{') throw syntaxError("A JSONObject text must begin with '{'");
+			skipObject();
+			skipWhitespace();
+			if (index < end) throw syntaxError("Unexpected text after the end of the JSON value");
+		}
+
+
+		private int peek() {
+			return index < end ? bytes[index] : 0;
+		}
+
+
+		private void skipWhitespace() {
+			while (index < end) {
+				byte b = bytes[index];
+				if (b != ' ' && b != '\t' && b != '\n' && b != '\r') return;
+				index++;
+			}
+		}
+
+
+		private void skipValue() throws JSONException {
+			skipWhitespace();
+			int b = peek();
+			switch (b) {
+				case '{':
+					skipObject();
+					break;
+				case '[':
+					skipArray();
+					break;
+				case '"':
+					skipString();
+					break;
+				case 't':
+					skipLiteral("true");
+					break;
+				case 'f':
+					skipLiteral("false");
+					break;
+				case 'n':
+					skipLiteral("null");
+					break;
+				default:
+					if (b == '-' || (b >= '0' && b <= '9')) skipNumber();
+					else throw syntaxError(index < end ? "Unexpected byte " + (b & 0xFF) : "Missing value");
+			}
+		}
+
+
+		private void skipObject() throws JSONException {
+			if (++depth > MAXIMUM_DEPTH) throw syntaxError("Too many nested objects or arrays");
+			index++;
+			skipWhitespace();
+			if (peek() == '}') {
+				index++;
+				depth--;
+				return;
+			}
+			List<String> names = new ArrayList<String>();
+			for (;;) {
+				skipWhitespace();
+				if (peek() != '"') throw syntaxError("Expected a quoted name");
+				int nameStart = index;
+				skipString();
+				String name = decodeName(nameStart, index);
+				if (names.contains(name)) throw syntaxError("Duplicate key \"" + name + "\"");
+				names.add(name);
+				skipWhitespace();
+				if (peek() != ':') throw syntaxError("Expected a ':' after a key");
+				index++;
+				skipValue();
+				skipWhitespace();
+				int b = peek();
+				index++;
+				if (b == '}') break;
+				if (b != ',') throw syntaxError("Expected a ',' or '}'");
+			}
+			depth--;
+		}
+
+
+		/**
+		 * Decode a quoted name which was already checked, so that names written with different escape sequences compare equal.
+		 */
+		private String decodeName(int start, int stop) throws JSONException {
+			String quoted;
+			try {
+				quoted = new String(bytes, start, stop - start, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new JSONException(e);
+			}
+			if (quoted.indexOf('\\') < 0) return quoted.substring(1, quoted.length() - 1);
+			return new JSONParser(quoted).nextString();
+		}
+
+
+		private void skipArray() throws JSONException {
+			if (++depth > MAXIMUM_DEPTH) throw syntaxError("Too many nested objects or arrays");
+			index++;
+			skipWhitespace();
+			if (peek() == ']') {
+				index++;
+				depth--;
+				return;
+			}
+			for (;;) {
+				skipValue();
+				skipWhitespace();
+				int b = peek();
+				index++;
+				if (b == ']') break;
+				if (b != ',') throw syntaxError("Expected a ',' or ']'");
+			}
+			depth--;
+		}
+
+
+		private void skipString() throws JSONException {
+			index++;
+			while (index < end) {
+				int b = bytes[index];
+				if (b == '"') {
+					index++;
+					return;
+				}
+				if (b < 0) {
+					int next = skipMultiByteCharacter(bytes, index, end);
+					if (next < 0) throw syntaxError("Invalid UTF-8 sequence");
+					index = next;
+				} else if (b < ' ') {
+					throw syntaxError("Unescaped control character in string");
+				} else if (b == '\\') {
+					index++;
+					b = peek();
+					if (b == 'u') {
+						for (int i = 0; i < 4; i++) {
+							index++;
+							if (hexValue(peek()) < 0) throw syntaxError("Illegal escape.");
+						}
+					} else if ("btnfr\"\\/".indexOf(b) < 0 || b == 0) {
+						throw syntaxError("Illegal escape.");
+					}
+					index++;
+				} else {
+					index++;
+				}
+			}
+			throw syntaxError("Unterminated string");
+		}
+
+
+		private void skipNumber() throws JSONException {
+			if (peek() == '-') index++;
+			int digitsStart = index;
+			int digits = skipDigits();
+			if (digits == 0) throw syntaxError("Missing digits in number");
+			if (digits > 1 && bytes[digitsStart] == '0') throw syntaxError("Leading zeros are not allowed in numbers");
+			if (peek() == '.') {
+				index++;
+				if (skipDigits() == 0) throw syntaxError("Missing digits after decimal point");
+			}
+			int b = peek();
+			if (b == 'e' || b == 'E') {
+				index++;
+				b = peek();
+				if (b == '+' || b == '-') index++;
+				if (skipDigits() == 0) throw syntaxError("Missing digits in exponent");
+			}
+		}
+
+
+		private int skipDigits() {
+			int start = index;
+			while (index < end && bytes[index] >= '0' && bytes[index] <= '9')
+				index++;
+			return index - start;
+		}
+
+
+		private void skipLiteral(String literal) throws JSONException {
+			int length = literal.length();
+			if (index + length > end) throw syntaxError("Unexpected end of text");
+			for (int i = 0; i < length; i++) {
+				if (bytes[index + i] != literal.charAt(i)) throw syntaxError("Unexpected byte " + (bytes[index + i] & 0xFF));
+			}
+			index += length;
+		}
+
+
+		/**
+		 * Skip a character encoded on two to four bytes.
+		 *
+		 * @return the index following the character, or -1 if the sequence is not valid UTF-8
+		 */
+		static int skipMultiByteCharacter(byte[] bytes, int i, int end) {
+			int lead = bytes[i] & 0xFF;
+			int count;
+			int min = 0x80;
+			int max = 0xBF;
+			if (lead >= 0xC2 && lead <= 0xDF) {
+				count = 1;
+			} else if (lead >= 0xE0 && lead <= 0xEF) {
+				count = 2;
+				if (lead == 0xE0) min = 0xA0;
+				else if (lead == 0xED) max = 0x9F;
+			} else if (lead >= 0xF0 && lead <= 0xF4) {
+				count = 3;
+				if (lead == 0xF0) min = 0x90;
+				else if (lead == 0xF4) max = 0x8F;
+			} else {
+				return -1;
+			}
+			if (i + count >= end) return -1;
+			int second = bytes[i + 1] & 0xFF;
+			if (second < min || second > max) return -1;
+			for (int k = 2; k <= count; k++) {
+				int b = bytes[i + k] & 0xFF;
+				if (b < 0x80 || b > 0xBF) return -1;
+			}
+			return i + count + 1;
+		}
+
+
+		private JSONException syntaxError(String message) {
+			return new JSONException(message + " at byte " + (index - offset));
+		}
+	}
+
+}
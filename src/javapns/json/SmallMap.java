@@ -0,0 +1,226 @@
+package javapns.json;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact map backing small JSONObjects, which keeps keys and values in
+ * parallel arrays in insertion order.
+ * <p>
+ * Dictionaries such as <code>aps</code> or <code>alert</code> only hold a
+ * handful of keys, for which a linear search is faster than hashing and
+ * two small arrays take much less memory than a HashMap and its entries.
+ * Iterating over this map (and therefore serializing a JSONObject backed by
+ * it) always returns keys in the order they were first added.
+ * <p>
+ * JSONObject replaces this map with a LinkedHashMap, which keeps the same
+ * order, once it holds more than {@link #MAXIMUM_SIZE} keys.
+ *
+ * @author Sylvain Pedneault
+ */
+class SmallMap extends AbstractMap<Object, Object> {
+
+	/**
+	 * The number of keys beyond which a JSONObject should switch to a hash-based map.
+	 */
+	static final int MAXIMUM_SIZE = 12;
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	private Object[] keys;
+	private Object[] values;
+	private int size = 0;
+
+
+	SmallMap() {
+		this.keys = new Object[INITIAL_CAPACITY];
+		this.values = new Object[INITIAL_CAPACITY];
+	}
+
+
+	private int indexOf(Object key) {
+		for (int i = 0; i < size; i++) {
+			Object k = keys[i];
+			if (k == key || (k != null && k.equals(key))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+
+	public Object get(Object key) {
+		int i = indexOf(key);
+		return i < 0 ? null : values[i];
+	}
+
+
+	public Object put(Object key, Object value) {
+		int i = indexOf(key);
+		if (i >= 0) {
+			Object previous = values[i];
+			values[i] = value;
+			return previous;
+		}
+		if (size == keys.length) {
+			Object[] newKeys = new Object[size * 2];
+			Object[] newValues = new Object[size * 2];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			keys = newKeys;
+			values = newValues;
+		}
+		keys[size] = key;
+		values[size] = value;
+		size++;
+		return null;
+	}
+
+
+	public Object remove(Object key) {
+		int i = indexOf(key);
+		return i < 0 ? null : removeAt(i);
+	}
+
+
+	private Object removeAt(int i) {
+		Object previous = values[i];
+		int moved = size - i - 1;
+		if (moved > 0) {
+			System.arraycopy(keys, i + 1, keys, i, moved);
+			System.arraycopy(values, i + 1, values, i, moved);
+		}
+		size--;
+		keys[size] = null;
+		values[size] = null;
+		return previous;
+	}
+
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			keys[i] = null;
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+
+	public Set<Map.Entry<Object, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<Object, Object>>() {
+
+			public Iterator<Map.Entry<Object, Object>> iterator() {
+				return new EntryIterator();
+			}
+
+
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+
+	/**
+	 * Iterates over entries in insertion order.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<Object, Object>> {
+
+		private int next = 0;
+		private int last = -1;
+
+
+		public boolean hasNext() {
+			return next < size;
+		}
+
+
+		public Map.Entry<Object, Object> next() {
+			if (next >= size) {
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return new Entry(last);
+		}
+
+
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			removeAt(last);
+			next = last;
+			last = -1;
+		}
+	}
+
+
+	/**
+	 * An entry reading and writing through to the arrays.  It is only valid
+	 * until the map is structurally modified.
+	 */
+	private class Entry implements Map.Entry<Object, Object> {
+
+		private final int index;
+
+
+		Entry(int index) {
+			this.index = index;
+		}
+
+
+		public Object getKey() {
+			return keys[index];
+		}
+
+
+		public Object getValue() {
+			return values[index];
+		}
+
+
+		public Object setValue(Object value) {
+			Object previous = values[index];
+			values[index] = value;
+			return previous;
+		}
+
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object k = getKey();
+			Object v = getValue();
+			return (k == null ? e.getKey() == null : k.equals(e.getKey())) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+		}
+
+
+		public int hashCode() {
+			Object k = getKey();
+			Object v = getValue();
+			return (k == null ? 0 : k.hashCode()) ^ (v == null ? 0 : v.hashCode());
+		}
+
+
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+}
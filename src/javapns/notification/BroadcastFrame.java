@@ -0,0 +1,120 @@
+package javapns.notification;
+
+import javapns.notification.exceptions.*;
+
+/**
+ * <p>A payload serialized once and pre-encoded into frame templates, for pushing the same payload to many devices.</p>
+ *
+ * <p>Normally, a payload is serialized to JSON, converted to bytes and checked against the maximum payload size
+ * every time it is pushed to a device.  A broadcast frame does all of this once, and holds a template of the
+ * complete frame in both the simple and enhanced formats.  Encoding a notification then only copies the template
+ * and patches the identifier, the expiry and the token.</p>
+ *
+ * <p>A broadcast frame is immutable and can be shared by any number of threads.  It captures the payload as it
+ * was when the frame was created:  later changes to the payload are not reflected in frames encoded from it,
+ * which is why a frame is passed explicitly with each notification rather than matched against payloads.
+ * Payloads which are customized for each device (such as debug alerts) cannot be broadcast.</p>
+ *
+ * @author Sylvain Pedneault
+ * @see PushNotificationManager#sendNotification(javapns.devices.Device, BroadcastFrame, boolean, int, PushFuture, int)
+ */
+public final class BroadcastFrame {
+
+	/* Number of bytes in a device token (64 hexadecimal characters) */
+	static final int TOKEN_LENGTH = 32;
+
+	/* Offset of the token in each template: after command + token length, plus identifier + expiry in the enhanced format */
+	static final int SIMPLE_TOKEN_OFFSET = 1 + 2;
+	static final int ENHANCED_TOKEN_OFFSET = 1 + 4 + 4 + 2;
+
+	private final Payload payload;
+	private final byte[] simpleTemplate;
+	private final byte[] enhancedTemplate;
+
+
+	/**
+	 * Serialize a payload and build frame templates from it.
+	 *
+	 * @param payload the payload to broadcast
+	 * @throws PayloadIsEmptyException if the payload is empty
+	 * @throws PayloadMaxSizeExceededException if the payload exceeds the maximum payload size
+	 * @throws IllegalArgumentException if the payload is customized for each device
+	 * @throws Exception if the payload cannot be serialized
+	 */
+	public BroadcastFrame(Payload payload) throws Exception {
+		if (payload.getPreSendConfiguration() != 0) throw new IllegalArgumentException("Payloads customized for each device cannot be broadcast");
+		try {
+			payload.verifyPayloadIsNotEmpty();
+		} catch (IllegalArgumentException e) {
+			throw new PayloadIsEmptyException();
+		}
+		byte[] bytes = payload.getPayloadAsBytesForStreaming();
+		this.payload = payload;
+		this.simpleTemplate = buildTemplate(NotificationFrameEncoder.COMMAND_SIMPLE, SIMPLE_TOKEN_OFFSET, bytes);
+		this.enhancedTemplate = buildTemplate(NotificationFrameEncoder.COMMAND_ENHANCED, ENHANCED_TOKEN_OFFSET, bytes);
+	}
+
+
+	/**
+	 * Build a frame with a blank identifier, expiry and token.
+	 */
+	private static byte[] buildTemplate(byte command, int tokenOffset, byte[] payload) {
+		byte[] template = new byte[tokenOffset + TOKEN_LENGTH + 2 + payload.length];
+		template[0] = command;
+		template[tokenOffset - 2] = (byte) (TOKEN_LENGTH >> 8);
+		template[tokenOffset - 1] = (byte) TOKEN_LENGTH;
+		int lengthOffset = tokenOffset + TOKEN_LENGTH;
+		template[lengthOffset] = (byte) (payload.length >> 8);
+		template[lengthOffset + 1] = (byte) payload.length;
+		System.arraycopy(payload, 0, template, lengthOffset + 2, payload.length);
+		return template;
+	}
+
+
+	/**
+	 * Get the payload this frame was built from.
+	 *
+	 * @return a payload
+	 */
+	public Payload getPayload() {
+		return payload;
+	}
+
+
+	/**
+	 * Get the number of bytes the serialized payload occupies.
+	 *
+	 * @return a number of bytes
+	 */
+	public int getPayloadLength() {
+		return simpleTemplate.length - SIMPLE_TOKEN_OFFSET - TOKEN_LENGTH - 2;
+	}
+
+
+	/**
+	 * Check if a token can be patched into this frame's templates.
+	 *
+	 * @param token the device token in hexadecimal form
+	 * @return true if the token has the standard length
+	 */
+	boolean accepts(String token) {
+		return token.length() == TOKEN_LENGTH * 2;
+	}
+
+
+	/**
+	 * Get the template in the simple or enhanced format.  The returned array must not be modified.
+	 *
+	 * @param enhanced true for the enhanced format, false for the simple format
+	 * @return a complete frame with a blank identifier, expiry and token
+	 */
+	byte[] getTemplate(boolean enhanced) {
+		return enhanced ? enhancedTemplate : simpleTemplate;
+	}
+
+
+	static int tokenOffset(boolean enhanced) {
+		return enhanced ? ENHANCED_TOKEN_OFFSET : SIMPLE_TOKEN_OFFSET;
+	}
+
+}
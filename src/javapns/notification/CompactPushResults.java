@@ -0,0 +1,319 @@
+package javapns.notification;
+
+import java.util.*;
+
+import javapns.devices.*;
+import javapns.devices.implementations.basic.*;
+
+/**
+ * <p>A result sink which records outcomes in compact columns of primitives instead of retaining PushedNotification objects.</p>
+ *
+ * <p>For each notification, only the identifier, the position of the device in the job's list of devices
+ * (see {@link PushedNotification#getDeviceIndex()}), the status code and the number of transmission attempts
+ * are recorded, which amounts to about 10 bytes per notification.  Columns are allocated in pages, so they
+ * never have to be copied as they grow.  Devices and payloads are not retained:  they are looked up in the
+ * list of devices provided to this object when a notification is read back.  Exceptions are retained for
+ * failed notifications, and devices are retained for notifications whose device index is unknown, or for
+ * failed notifications when no list of devices was provided.  Payloads other than the job's payload are
+ * retained only if they cannot be found in the list of devices, and only for failed notifications when
+ * no list of devices was provided.</p>
+ *
+ * <p>PushedNotification objects are rebuilt on demand when reading results back through {@link #get(int)}
+ * or through the iterators returned by {@link #getFailedNotifications()} and {@link #getSuccessfulNotifications()}.
+ * Those are read-only views:  they are not linked to the notifications that were actually pushed.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class CompactPushResults implements PushResultSink, Iterable<PushedNotification> {
+
+	private static final int PAGE_BITS = 16;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	/* Status recorded for notifications that failed without an error-response packet (Apple uses 0 to 10 and 255) */
+	public static final int STATUS_FAILED = 254;
+
+	private final Payload payload;
+	private final List<?> devices;
+
+	private int[][] identifiers = new int[16][];
+	private int[][] deviceIndexes = new int[16][];
+	private byte[][] statuses = new byte[16][];
+	private byte[][] attempts = new byte[16][];
+	private int size = 0;
+	private int failed = 0;
+
+	/* Details which cannot be recovered from the list of devices, retained only for the notifications that need them */
+	private final Map<Integer, Device> devicesByRow = new HashMap<Integer, Device>();
+	private final Map<Integer, Payload> payloadsByRow = new HashMap<Integer, Payload>();
+	private final Map<Integer, Exception> exceptionsByRow = new HashMap<Integer, Exception>();
+
+
+	/**
+	 * Create a compact result store for a job pushing a payload to a list of devices.
+	 *
+	 * @param payload the payload pushed by the job (payloads of notifications pushing a different payload are retained)
+	 * @param devices the list the job was created from:  tokens (String), devices (Device) or payload/device pairs (PayloadPerDevice)
+	 */
+	public CompactPushResults(Payload payload, List<?> devices) {
+		this.payload = payload;
+		this.devices = devices;
+	}
+
+
+	/**
+	 * Create a compact result store for a job pushing a payload to devices which are not held in a list,
+	 * such as devices pulled from an iterator.  Devices are retained for failed notifications only; the device
+	 * of a successful notification can be found from its device index (ie its position in the iterator).
+	 * Likewise, payloads pulled from the iterator (with PayloadPerDevice items) are retained for failed
+	 * notifications only:  successful notifications are read back with the job's payload.
+	 *
+	 * @param payload the payload pushed by the job
+	 */
+	public CompactPushResults(Payload payload) {
+		this(payload, null);
+	}
+
+
+	public void notificationSucceeded(PushedNotification notification) {
+		record(notification, 0);
+	}
+
+
+	public void notificationFailed(PushedNotification notification) {
+		record(notification, STATUS_FAILED);
+	}
+
+
+	public void errorResponseReceived(PushedNotification notification, ResponsePacket response) {
+		record(notification, response.getStatus());
+	}
+
+
+	private synchronized void record(PushedNotification notification, int status) {
+		int row = size;
+		int page = row >>> PAGE_BITS;
+		if (page == identifiers.length) growPages();
+		if (identifiers[page] == null) {
+			identifiers[page] = new int[PAGE_SIZE];
+			deviceIndexes[page] = new int[PAGE_SIZE];
+			statuses[page] = new byte[PAGE_SIZE];
+			attempts[page] = new byte[PAGE_SIZE];
+		}
+		int offset = row & PAGE_MASK;
+		int deviceIndex = notification.getDeviceIndex();
+		identifiers[page][offset] = notification.getIdentifier();
+		deviceIndexes[page][offset] = deviceIndex;
+		statuses[page][offset] = (byte) status;
+		attempts[page][offset] = (byte) Math.min(notification.getTransmissionAttempts(), Byte.MAX_VALUE);
+
+		Object item = listItem(deviceIndex);
+		if (item == null && (deviceIndex < 0 || status != 0)) devicesByRow.put(row, notification.getDevice());
+		if (notification.getPayload() != payload && !(item instanceof PayloadPerDevice) && (item != null || status != 0)) payloadsByRow.put(row, notification.getPayload());
+		if (status == STATUS_FAILED && notification.getException() != null) exceptionsByRow.put(row, notification.getException());
+
+		size++;
+		if (status != 0) failed++;
+	}
+
+
+	private void growPages() {
+		int pages = identifiers.length * 2;
+		int[][] newIdentifiers = new int[pages][];
+		int[][] newDeviceIndexes = new int[pages][];
+		byte[][] newStatuses = new byte[pages][];
+		byte[][] newAttempts = new byte[pages][];
+		System.arraycopy(identifiers, 0, newIdentifiers, 0, identifiers.length);
+		System.arraycopy(deviceIndexes, 0, newDeviceIndexes, 0, deviceIndexes.length);
+		System.arraycopy(statuses, 0, newStatuses, 0, statuses.length);
+		System.arraycopy(attempts, 0, newAttempts, 0, attempts.length);
+		identifiers = newIdentifiers;
+		deviceIndexes = newDeviceIndexes;
+		statuses = newStatuses;
+		attempts = newAttempts;
+	}
+
+
+	private Object listItem(int deviceIndex) {
+		if (devices == null || deviceIndex < 0 || deviceIndex >= devices.size()) return null;
+		return devices.get(deviceIndex);
+	}
+
+
+	/**
+	 * Get the number of notifications recorded.
+	 *
+	 * @return a number of notifications
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+
+	/**
+	 * Get the number of notifications recorded as failed, including those for which Apple returned an error-response packet.
+	 *
+	 * @return a number of notifications
+	 */
+	public synchronized int getFailedCount() {
+		return failed;
+	}
+
+
+	/**
+	 * Get the number of notifications recorded as successful.
+	 *
+	 * @return a number of notifications
+	 */
+	public synchronized int getSuccessfulCount() {
+		return size - failed;
+	}
+
+
+	/**
+	 * Get the status code recorded for a notification:  0 if it was successful, the status of the error-response
+	 * packet returned by Apple, or {@link #STATUS_FAILED} if it could not be pushed.
+	 *
+	 * @param row the position of the notification in this store
+	 * @return a status code
+	 */
+	public synchronized int getStatus(int row) {
+		checkRow(row);
+		return statuses[row >>> PAGE_BITS][row & PAGE_MASK] & 0xFF;
+	}
+
+
+	/**
+	 * Get the position of a notification's device in the job's list of devices.
+	 *
+	 * @param row the position of the notification in this store
+	 * @return a zero-based index, or -1 if unknown
+	 */
+	public synchronized int getDeviceIndex(int row) {
+		checkRow(row);
+		return deviceIndexes[row >>> PAGE_BITS][row & PAGE_MASK];
+	}
+
+
+	/**
+	 * Rebuild a notification from the recorded columns.
+	 *
+	 * @param row the position of the notification in this store
+	 * @return a read-only view of the notification
+	 */
+	public synchronized PushedNotification get(int row) {
+		checkRow(row);
+		int page = row >>> PAGE_BITS;
+		int offset = row & PAGE_MASK;
+		int identifier = identifiers[page][offset];
+		int deviceIndex = deviceIndexes[page][offset];
+		int status = statuses[page][offset] & 0xFF;
+
+		Device device = devicesByRow.get(row);
+		Payload notificationPayload = payloadsByRow.containsKey(row) ? payloadsByRow.get(row) : payload;
+		Object item = listItem(deviceIndex);
+		if (item instanceof PayloadPerDevice) {
+			if (device == null) device = ((PayloadPerDevice) item).getDevice();
+			if (!payloadsByRow.containsKey(row)) notificationPayload = ((PayloadPerDevice) item).getPayload();
+		} else if (item instanceof Device) {
+			if (device == null) device = (Device) item;
+		} else if (item != null && device == null) {
+			BasicDevice basicDevice = new BasicDevice();
+			basicDevice.setToken(item.toString());
+			device = basicDevice;
+		}
+
+		PushedNotification notification = new PushedNotification(device, notificationPayload, identifier);
+		notification.setDeviceIndex(deviceIndex);
+		notification.setTransmissionAttempts(attempts[page][offset]);
+		if (status == STATUS_FAILED) {
+			notification.setTransmissionCompleted(false);
+			notification.setException(exceptionsByRow.get(row));
+		} else {
+			notification.setTransmissionCompleted(true);
+			if (status != 0) notification.setResponse(new ResponsePacket(8, status, identifier));
+		}
+		return notification;
+	}
+
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+	}
+
+
+	/**
+	 * Iterate over all recorded notifications, rebuilding each one as it is reached.
+	 *
+	 * @return an iterator of read-only views
+	 */
+	public Iterator<PushedNotification> iterator() {
+		return new RowIterator(null);
+	}
+
+
+	/**
+	 * Iterate over notifications recorded as failed, rebuilding each one as it is reached.
+	 *
+	 * @return an iterator of read-only views
+	 */
+	public Iterator<PushedNotification> getFailedNotifications() {
+		return new RowIterator(Boolean.FALSE);
+	}
+
+
+	/**
+	 * Iterate over notifications recorded as successful, rebuilding each one as it is reached.
+	 *
+	 * @return an iterator of read-only views
+	 */
+	public Iterator<PushedNotification> getSuccessfulNotifications() {
+		return new RowIterator(Boolean.TRUE);
+	}
+
+
+	/**
+	 * Iterates over the rows recorded when the iterator was created, skipping rows that do not match the requested outcome.
+	 */
+	private class RowIterator implements Iterator<PushedNotification> {
+
+		private final Boolean successful;
+		private final int end;
+		private int next = -1;
+
+
+		RowIterator(Boolean successful) {
+			this.successful = successful;
+			this.end = size();
+			advance();
+		}
+
+
+		private void advance() {
+			next++;
+			if (successful == null) return;
+			while (next < end && (getStatus(next) == 0) != successful.booleanValue())
+				next++;
+		}
+
+
+		public boolean hasNext() {
+			return next < end;
+		}
+
+
+		public PushedNotification next() {
+			if (next >= end) throw new NoSuchElementException();
+			PushedNotification notification = get(next);
+			advance();
+			return notification;
+		}
+
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
@@ -48,7 +48,7 @@ public class NewsstandNotificationPayload extends Payload {
 		super();
 		this.apsDictionary = new JSONObject();
 		try {
-			JSONObject payload = getPayload();
+			JSONObject payload = getRootDictionary();
 			payload.put("aps", this.apsDictionary);
 		} catch (JSONException e) {
 			e.printStackTrace();
@@ -63,7 +63,7 @@ public class NewsstandNotificationPayload extends Payload {
 
 	void addContentAvailable(int contentAvailable) throws JSONException {
 		logger.debug("Adding ContentAvailable [" + contentAvailable + "]");
-		this.apsDictionary.put("content-available", contentAvailable);
+		put("content-available", contentAvailable, this.apsDictionary, false);
 	}
 
 }
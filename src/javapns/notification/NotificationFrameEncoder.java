@@ -0,0 +1,233 @@
+package javapns.notification;
+
+import java.nio.*;
+
+import javapns.devices.exceptions.*;
+
+/**
+ * Encodes notification frames in Apple's binary simple or enhanced format.
+ *
+ * <p>Frames are written directly into a ByteBuffer which is reused from one
+ * notification to the next, so that building a frame does not allocate any
+ * temporary object.  Device tokens are decoded from their hexadecimal form
+ * using a lookup table.</p>
+ *
+ * <p>An encoder is not thread-safe.  Each PushNotificationManager (and therefore
+ * each connection) owns its own encoder.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class NotificationFrameEncoder {
+
+	/* Command byte for the simple notification format */
+	static final byte COMMAND_SIMPLE = 0;
+
+	/* Command byte for the enhanced notification format */
+	static final byte COMMAND_ENHANCED = 1;
+
+	/* Initial capacity of the frame buffer, large enough for any frame carrying an APNS payload */
+	private static final int DEFAULT_CAPACITY = 512;
+
+	/* Number of bytes preceding the token in the simple format: command + token length */
+	private static final int SIMPLE_HEADER_LENGTH = 1 + 2;
+
+	/* Number of bytes preceding the token in the enhanced format: command + identifier + expiry + token length */
+	private static final int ENHANCED_HEADER_LENGTH = 1 + 4 + 4 + 2;
+
+	/* Maps an ASCII character to its hexadecimal value, or -1 if the character is not a valid hexadecimal digit */
+	private static final byte[] HEX_VALUES = new byte[128];
+
+	static {
+		for (int i = 0; i < HEX_VALUES.length; i++)
+			HEX_VALUES[i] = -1;
+		for (int i = '0'; i <= '9'; i++)
+			HEX_VALUES[i] = (byte) (i - '0');
+		for (int i = 'a'; i <= 'f'; i++)
+			HEX_VALUES[i] = (byte) (i - 'a' + 10);
+		for (int i = 'A'; i <= 'F'; i++)
+			HEX_VALUES[i] = (byte) (i - 'A' + 10);
+	}
+
+	private ByteBuffer buffer;
+
+
+	/**
+	 * Create an encoder with a default buffer capacity.
+	 */
+	NotificationFrameEncoder() {
+		this(DEFAULT_CAPACITY);
+	}
+
+
+	/**
+	 * Create an encoder with a specific initial buffer capacity.
+	 * The buffer grows automatically if a larger frame needs to be encoded.
+	 *
+	 * @param capacity the initial capacity of the frame buffer
+	 */
+	NotificationFrameEncoder(int capacity) {
+		this.buffer = ByteBuffer.allocate(capacity);
+	}
+
+
+	/**
+	 * Encode a frame in the simple or enhanced format.
+	 *
+	 * <p>The returned buffer is positioned at the first byte of the frame and its limit is
+	 * set to the end of the frame.  Its content remains valid until the next invocation
+	 * of this method.</p>
+	 *
+	 * @param enhanced true to use the enhanced format, false to use the simple format
+	 * @param identifier the notification identifier (enhanced format only)
+	 * @param expiry the expiry date in seconds since the epoch (enhanced format only)
+	 * @param token the device token in hexadecimal form
+	 * @param payload the serialized payload
+	 * @return a buffer containing the frame, ready to be written
+	 * @throws InvalidDeviceTokenFormatException if the token contains invalid hexadecimal characters
+	 */
+	ByteBuffer encode(boolean enhanced, int identifier, int expiry, String token, byte[] payload) throws InvalidDeviceTokenFormatException {
+		return encode(enhanced, identifier, expiry, token, payload, 0, payload.length);
+	}
+
+
+	/**
+	 * Encode a frame in the simple or enhanced format, using a slice of a byte array as payload.
+	 *
+	 * @param enhanced true to use the enhanced format, false to use the simple format
+	 * @param identifier the notification identifier (enhanced format only)
+	 * @param expiry the expiry date in seconds since the epoch (enhanced format only)
+	 * @param token the device token in hexadecimal form
+	 * @param payload an array containing the serialized payload
+	 * @param offset the offset of the payload in the array
+	 * @param length the length of the payload
+	 * @return a buffer containing the frame, ready to be written
+	 * @throws InvalidDeviceTokenFormatException if the token contains invalid hexadecimal characters
+	 */
+	ByteBuffer encode(boolean enhanced, int identifier, int expiry, String token, byte[] payload, int offset, int length) throws InvalidDeviceTokenFormatException {
+		ensureCapacity(frameLength(enhanced, token, length));
+		ByteBuffer frame = this.buffer;
+		frame.clear();
+		encode(frame, enhanced, identifier, expiry, token, payload, offset, length);
+		frame.flip();
+		return frame;
+	}
+
+
+	/**
+	 * Encode a frame by copying a broadcast template and patching the identifier, expiry and token.
+	 * The token must have the length accepted by the template.
+	 *
+	 * <p>The returned buffer is positioned at the first byte of the frame and its limit is
+	 * set to the end of the frame.  Its content remains valid until the next invocation
+	 * of an encode method.</p>
+	 *
+	 * @param template a broadcast frame
+	 * @param enhanced true to use the enhanced format, false to use the simple format
+	 * @param identifier the notification identifier (enhanced format only)
+	 * @param expiry the expiry date in seconds since the epoch (enhanced format only)
+	 * @param token the device token in hexadecimal form
+	 * @return a buffer containing the frame, ready to be written
+	 * @throws InvalidDeviceTokenFormatException if the token contains invalid hexadecimal characters
+	 */
+	ByteBuffer encode(BroadcastFrame template, boolean enhanced, int identifier, int expiry, String token) throws InvalidDeviceTokenFormatException {
+		byte[] bytes = template.getTemplate(enhanced);
+		ensureCapacity(bytes.length);
+		ByteBuffer frame = this.buffer;
+		frame.clear();
+		frame.put(bytes);
+		if (enhanced) {
+			frame.putInt(1, identifier);
+			frame.putInt(5, expiry);
+		}
+		frame.position(BroadcastFrame.tokenOffset(enhanced));
+		putToken(frame, token, BroadcastFrame.TOKEN_LENGTH);
+		frame.position(0);
+		frame.limit(bytes.length);
+		return frame;
+	}
+
+
+	/**
+	 * Get the number of bytes a frame will occupy once encoded.
+	 *
+	 * @param enhanced true to use the enhanced format, false to use the simple format
+	 * @param token the device token in hexadecimal form
+	 * @param length the length of the payload
+	 * @return the length of the frame
+	 */
+	public static int frameLength(boolean enhanced, String token, int length) {
+		return (enhanced ? ENHANCED_HEADER_LENGTH : SIMPLE_HEADER_LENGTH) + token.length() / 2 + 2 + length;
+	}
+
+
+	/**
+	 * Encode a frame directly into a buffer provided by the caller, starting at the buffer's position.
+	 * The buffer must have at least frameLength(..) bytes remaining.  If the token is invalid,
+	 * the buffer's position is left unchanged.
+	 *
+	 * @param frame the buffer to write to
+	 * @param enhanced true to use the enhanced format, false to use the simple format
+	 * @param identifier the notification identifier (enhanced format only)
+	 * @param expiry the expiry date in seconds since the epoch (enhanced format only)
+	 * @param token the device token in hexadecimal form
+	 * @param payload an array containing the serialized payload
+	 * @param offset the offset of the payload in the array
+	 * @param length the length of the payload
+	 * @throws InvalidDeviceTokenFormatException if the token contains invalid hexadecimal characters
+	 */
+	public static void encode(ByteBuffer frame, boolean enhanced, int identifier, int expiry, String token, byte[] payload, int offset, int length) throws InvalidDeviceTokenFormatException {
+		int tokenLength = token.length() / 2;
+		int start = frame.position();
+		if (enhanced) {
+			frame.put(COMMAND_ENHANCED);
+			frame.putInt(identifier);
+			frame.putInt(expiry);
+		} else {
+			frame.put(COMMAND_SIMPLE);
+		}
+		frame.putShort((short) tokenLength);
+		try {
+			putToken(frame, token, tokenLength);
+		} catch (InvalidDeviceTokenFormatException e) {
+			frame.position(start);
+			throw e;
+		}
+		frame.putShort((short) length);
+		frame.put(payload, offset, length);
+	}
+
+
+	/**
+	 * Decode a hexadecimal device token directly into the frame buffer.
+	 *
+	 * @param frame the buffer to write to
+	 * @param token the device token in hexadecimal form
+	 * @param tokenLength the number of bytes to write
+	 * @throws InvalidDeviceTokenFormatException if the token contains invalid hexadecimal characters
+	 */
+	private static void putToken(ByteBuffer frame, String token, int tokenLength) throws InvalidDeviceTokenFormatException {
+		for (int i = 0, c = 0; i < tokenLength; i++) {
+			int high = hexValue(token, c++);
+			int low = hexValue(token, c++);
+			frame.put((byte) ((high << 4) | low));
+		}
+	}
+
+
+	private static int hexValue(String token, int index) throws InvalidDeviceTokenFormatException {
+		char c = token.charAt(index);
+		int value = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+		if (value < 0) throw new InvalidDeviceTokenFormatException(token, "invalid character '" + c + "' at position " + index);
+		return value;
+	}
+
+
+	private void ensureCapacity(int size) {
+		if (buffer.capacity() >= size) return;
+		int capacity = buffer.capacity();
+		while (capacity < size)
+			capacity *= 2;
+		buffer = ByteBuffer.allocate(capacity);
+	}
+
+}
@@ -24,6 +24,14 @@ public abstract class Payload {
 
 	protected static final Logger logger = Logger.getLogger(Payload.class);
 
+	/* Serializer reused by each thread for payloads encoded in UTF-8 */
+	private static final ThreadLocal<JSONByteWriter> writers = new ThreadLocal<JSONByteWriter>() {
+
+		protected JSONByteWriter initialValue() {
+			return new JSONByteWriter();
+		}
+	};
+
 	/* The root Payload */
 	private JSONObject payload;
 
@@ -37,6 +45,16 @@ public abstract class Payload {
 
 	private int preSendConfiguration = 0;
 
+	/* Exact number of bytes this payload occupies in UTF-8, kept up to date by put(..), or -1 if unknown */
+	private int trackedSize = -1;
+
+	/* False once the backing JSONObject was handed out through getPayload(), since it may then change without this payload knowing */
+	private boolean sizeTracked = true;
+
+	/* Serialized form of this payload, cached when the payload is frozen (null until then) */
+	private String frozenString;
+	private volatile byte[] frozenBytes;
+
 
 	/**
 	 * Construct a Payload object with a blank root JSONObject
@@ -54,19 +72,61 @@ public abstract class Payload {
 	 */
 	public Payload(String rawJSON) throws JSONException {
 		super();
-		this.payload = new JSONObject(rawJSON);
+		this.payload = parse(rawJSON);
+	}
+
+
+	/**
+	 * Parse a JSON-formatted string with the fast JSONParser, falling back to JSONTokener
+	 * for texts using the non-standard forms it tolerates (single quotes, unquoted names, etc.)
+	 */
+	private static JSONObject parse(String rawJSON) throws JSONException {
+		try {
+			return JSONParser.parseObject(rawJSON);
+		} catch (JSONException e) {
+			return new JSONObject(rawJSON);
+		}
 	}
 
 
 	/**
 	 * Get the actual JSON object backing this payload.
+	 * 
+	 * Since the JSONObject returned can be changed directly, the size of this payload
+	 * is no longer tracked as properties are added, and is computed by serializing it instead.
+	 * 
 	 * @return a JSONObject
 	 */
 	public JSONObject getPayload() {
+		stopTrackingSize();
 		return this.payload;
 	}
 
 
+	/**
+	 * Get the JSON object backing this payload, for subclasses which only change it through put(..).
+	 * 
+	 * @return a JSONObject
+	 */
+	JSONObject getRootDictionary() {
+		return this.payload;
+	}
+
+
+	private void startTrackingSize() {
+		try {
+			getPayloadSize();
+		} catch (Exception e) {
+		}
+	}
+
+
+	private void stopTrackingSize() {
+		sizeTracked = false;
+		trackedSize = -1;
+	}
+
+
 	/**
 	 * Add a custom dictionnary with a string value
 	 * @param name
@@ -107,10 +167,75 @@ public abstract class Payload {
 	 * Get the string representation
 	 */
 	public String toString() {
+		if (frozenBytes != null) return frozenString;
 		return this.payload.toString();
 	}
 
 
+	/**
+	 * <p>Freeze this payload, making it immutable and safe to push from many threads at once.</p>
+	 * 
+	 * <p>The payload is serialized once, and its string and byte representations are cached for
+	 * all subsequent pushes.  Any further attempt to change the payload, including through the
+	 * JSONObject returned by getPayload(), throws an IllegalStateException.</p>
+	 * 
+	 * <p>Freezing is recommended when a single payload is shared by multiple threads, such as
+	 * when pushing it to a large list of devices with NotificationThreads.</p>
+	 * 
+	 * @return this payload
+	 * @throws IllegalStateException if this payload is customized for each device (such as a test payload)
+	 */
+	public synchronized Payload freeze() {
+		if (frozenBytes != null) return this;
+		if (preSendConfiguration != 0) throw new IllegalStateException("Payloads customized for each device cannot be frozen");
+		this.payload.freeze();
+		byte[] bytes;
+		try {
+			bytes = getPayloadAsBytesUnchecked();
+		} catch (Exception ex) {
+			bytes = this.payload.toString().getBytes();
+		}
+		frozenString = this.payload.toString();
+		frozenBytes = bytes;
+		return this;
+	}
+
+
+	/**
+	 * Use bytes which are already serialized as the content of this payload, which becomes frozen.
+	 * The bytes are streamed as is, and the JSONObject backing this payload is not used anymore.
+	 * 
+	 * @param bytes the serialized payload, which must not be modified afterwards
+	 * @param json the same payload as a string
+	 */
+	synchronized void setSerializedPayload(byte[] bytes, String json) {
+		checkNotFrozen();
+		this.payload.freeze();
+		frozenString = json;
+		frozenBytes = bytes;
+	}
+
+
+	/**
+	 * Indicates if this payload is frozen.
+	 * 
+	 * @return true if this payload is immutable
+	 */
+	public boolean isFrozen() {
+		return frozenBytes != null;
+	}
+
+
+	/**
+	 * Reject changes to a frozen payload.
+	 * 
+	 * @throws IllegalStateException if this payload is frozen
+	 */
+	protected void checkNotFrozen() {
+		if (frozenBytes != null) throw new IllegalStateException("Payload is frozen");
+	}
+
+
 	void verifyPayloadIsNotEmpty() {
 		if (getPreSendConfiguration() != 0) return;
 		if (toString().equals("{}")) throw new IllegalArgumentException("Payload cannot be empty");
@@ -123,12 +248,52 @@ public abstract class Payload {
 	 * @return byte[] bytes ready to be streamed directly to Apple servers
 	 */
 	public byte[] getPayloadAsBytes() throws Exception {
+		if (trackedSize > getMaximumPayloadSize()) validateMaximumPayloadSize(trackedSize);
+		byte[] payload = getPayloadAsBytesUnchecked();
+		validateMaximumPayloadSize(payload.length);
+		return frozenBytes == payload ? payload.clone() : payload;
+	}
+
+
+	/**
+	 * Get this payload as a byte array for streaming, without copying the cached bytes of a frozen payload.
+	 * The returned array must not be modified.
+	 * 
+	 * @return bytes ready to be streamed directly to Apple servers
+	 */
+	byte[] getPayloadAsBytesForStreaming() throws Exception {
 		byte[] payload = getPayloadAsBytesUnchecked();
 		validateMaximumPayloadSize(payload.length);
 		return payload;
 	}
 
 
+	/**
+	 * Serialize this payload into a writer for streaming, without creating any intermediate string or array.
+	 * The writer is reset first, and holds the serialized payload when this method returns.
+	 * 
+	 * @param writer a writer owned by the caller
+	 * @return the number of bytes written
+	 * @throws PayloadMaxSizeExceededException if the payload exceeds the maximum size allowed
+	 */
+	public int writePayload(JSONByteWriter writer) throws Exception {
+		writer.reset();
+		byte[] frozen = frozenBytes;
+		if (frozen != null) {
+			writer.write(frozen, 0, frozen.length);
+		} else if (isEncodedInUTF8()) {
+			if (trackedSize > getMaximumPayloadSize()) validateMaximumPayloadSize(trackedSize);
+			writer.write(this.payload);
+			if (sizeTracked) trackedSize = writer.size();
+		} else {
+			byte[] bytes = getPayloadAsBytesUnchecked();
+			writer.write(bytes, 0, bytes.length);
+		}
+		validateMaximumPayloadSize(writer.size());
+		return writer.size();
+	}
+
+
 	/**
 	 * Get this payload as a byte array using the preconfigured character encoding.
 	 * This method does NOT check if the payload exceeds the maximum payload length.
@@ -136,6 +301,15 @@ public abstract class Payload {
 	 * @return byte[] bytes ready to be streamed directly to Apple servers (but that might exceed the maximum size limit)
 	 */
 	private byte[] getPayloadAsBytesUnchecked() throws Exception {
+		byte[] frozen = frozenBytes;
+		if (frozen != null) return frozen;
+		if (isEncodedInUTF8()) {
+			JSONByteWriter writer = writers.get();
+			writer.reset();
+			writer.write(this.payload);
+			if (sizeTracked) trackedSize = writer.size();
+			return writer.toByteArray();
+		}
 		byte[] bytes = null;
 		try {
 			bytes = toString().getBytes(characterEncoding);
@@ -149,14 +323,34 @@ public abstract class Payload {
 	/**
 	 * Get the number of bytes that the payload will occupy when streamed.
 	 * 
+	 * Unless the JSONObject backing this payload was obtained through getPayload(), the size
+	 * is computed once and then kept up to date as properties are added, so this method
+	 * usually returns without serializing the payload.
+	 * 
 	 * @return a number of bytes
 	 * @throws Exception
 	 */
 	public int getPayloadSize() throws Exception {
+		byte[] frozen = frozenBytes;
+		if (frozen != null) return frozen.length;
+		if (isEncodedInUTF8()) {
+			int size = trackedSize;
+			if (size >= 0) return size;
+			JSONByteWriter writer = writers.get();
+			writer.reset();
+			size = writer.write(this.payload);
+			if (sizeTracked) trackedSize = size;
+			return size;
+		}
 		return getPayloadAsBytesUnchecked().length;
 	}
 
 
+	private boolean isEncodedInUTF8() {
+		return DEFAULT_CHARACTER_ENCODING.equalsIgnoreCase(characterEncoding) || "UTF8".equalsIgnoreCase(characterEncoding);
+	}
+
+
 	/**
 	 * Check if the payload exceeds the maximum size allowed.
 	 * The maximum size allowed is returned by the getMaximumPayloadSize() method.
@@ -165,8 +359,7 @@ public abstract class Payload {
 	 */
 	private boolean isPayloadTooLong() {
 		try {
-			byte[] bytes = getPayloadAsBytesUnchecked();
-			if (bytes.length > getMaximumPayloadSize()) return true;
+			if (getPayloadSize() > getMaximumPayloadSize()) return true;
 		} catch (Exception e) {
 		}
 		return false;
@@ -187,7 +380,7 @@ public abstract class Payload {
 	public int estimatePayloadSizeAfterAdding(String propertyName, Object propertyValue) {
 		try {
 			int maximumPayloadSize = getMaximumPayloadSize();
-			int currentPayloadSize = getPayloadAsBytesUnchecked().length;
+			int currentPayloadSize = getPayloadSize();
 			int estimatedSize = currentPayloadSize;
 			if (propertyName != null && propertyValue != null) {
 				estimatedSize += 5; // "":""
@@ -244,6 +437,10 @@ public abstract class Payload {
 	/**
 	 * Puts a property in a JSONObject, while possibly checking for estimated payload size violation.
 	 * 
+	 * The JSONObject must be this payload's root dictionary or a dictionary it contains, so that
+	 * the size of the payload can be kept up to date.  JSONObjects and JSONArrays put in the payload
+	 * must only be changed through this method afterwards.  Collections are copied into JSONArrays.
+	 * 
 	 * @param propertyName the name of the property to use for calculating the estimation
 	 * @param propertyValue the value of the property to use for calculating the estimation
 	 * @param object the JSONObject to put the property in
@@ -251,10 +448,16 @@ public abstract class Payload {
 	 * @throws JSONException
 	 */
 	protected void put(String propertyName, Object propertyValue, JSONObject object, boolean opt) throws JSONException {
+		checkNotFrozen();
+		if (propertyValue instanceof Collection) propertyValue = new JSONArray((Collection) propertyValue);
+		if (opt && (propertyName == null || propertyValue == null)) return;
+		if (!isTrackable(propertyValue)) stopTrackingSize();
+		else if (trackedSize < 0 && sizeTracked && isPayloadSizeEstimatedWhenAdding()) startTrackingSize();
+		int sizeAfterPut = sizeAfterPut(propertyName, propertyValue, object);
 		try {
 			if (isPayloadSizeEstimatedWhenAdding()) {
 				int maximumPayloadSize = getMaximumPayloadSize();
-				int estimatedPayloadSize = estimatePayloadSizeAfterAdding(propertyName, propertyValue);
+				int estimatedPayloadSize = sizeAfterPut >= 0 ? sizeAfterPut : estimatePayloadSizeAfterAdding(propertyName, propertyValue);
 				boolean estimatedToExceed = estimatedPayloadSize > maximumPayloadSize;
 				if (estimatedToExceed) throw new PayloadMaxSizeProbablyExceededException(maximumPayloadSize, estimatedPayloadSize);
 			}
@@ -265,6 +468,75 @@ public abstract class Payload {
 		}
 		if (opt) object.putOpt(propertyName, propertyValue);
 		else object.put(propertyName, propertyValue);
+		trackedSize = sizeAfterPut;
+	}
+
+
+	/**
+	 * Removes a property from a JSONObject contained in this payload.
+	 * 
+	 * @param propertyName the name of the property to remove
+	 * @param object the JSONObject to remove the property from
+	 * @throws JSONException
+	 */
+	protected void remove(String propertyName, JSONObject object) throws JSONException {
+		put(propertyName, null, object, false);
+	}
+
+
+	/**
+	 * Compute the exact size of this payload after putting a property in one of its dictionaries,
+	 * from the current size and the size of the property being replaced.
+	 * 
+	 * @return a number of bytes, or -1 if the size of this payload is not being tracked
+	 */
+	private int sizeAfterPut(String propertyName, Object propertyValue, JSONObject object) {
+		int size = trackedSize;
+		if (size < 0 || propertyName == null || !isTrackable(propertyValue)) return -1;
+		try {
+			JSONByteWriter writer = writers.get();
+			Object previousValue = object.opt(propertyName);
+			int count = object.length();
+			if (previousValue != null) {
+				writer.reset();
+				size -= writer.writeEntry(propertyName, previousValue);
+				if (count > 1) size--;
+				count--;
+			}
+			if (propertyValue != null) {
+				writer.reset();
+				size += writer.writeEntry(propertyName, propertyValue);
+				if (count > 0) size++;
+			}
+			return size;
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+
+	/**
+	 * Check if a value is one of those for which size can be tracked: immutable values, and
+	 * JSONObjects and JSONArrays which do not contain any other kind of mutable value.
+	 */
+	private static boolean isTrackable(Object value) {
+		if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean || JSONObject.NULL.equals(value)) return true;
+		if (value instanceof JSONObject) {
+			JSONObject object = (JSONObject) value;
+			Iterator<?> keys = object.keys();
+			while (keys.hasNext()) {
+				if (!isTrackable(object.opt(keys.next().toString()))) return false;
+			}
+			return true;
+		}
+		if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+			for (int i = 0; i < array.length(); i++) {
+				if (!isTrackable(array.opt(i))) return false;
+			}
+			return true;
+		}
+		return false;
 	}
 
 
@@ -283,6 +555,7 @@ public abstract class Payload {
 	 * @param checked true to throw an exception if the estimated size is too big when adding a property, false otherwise
 	 */
 	public void setPayloadSizeEstimatedWhenAdding(boolean checked) {
+		checkNotFrozen();
 		this.payloadSizeEstimatedWhenAdding = checked;
 	}
 
@@ -307,7 +580,9 @@ public abstract class Payload {
 	 * @param characterEncoding a valid character encoding that String.getBytes(encoding) will accept
 	 */
 	public void setCharacterEncoding(String characterEncoding) {
+		checkNotFrozen();
 		this.characterEncoding = characterEncoding;
+		this.trackedSize = -1;
 	}
 
 
@@ -329,6 +604,7 @@ public abstract class Payload {
 	 * @param seconds
 	 */
 	public void setExpiry(int seconds) {
+		checkNotFrozen();
 		this.expiry = seconds;
 	}
 
@@ -357,6 +633,7 @@ public abstract class Payload {
 
 
 	protected void setPreSendConfiguration(int preSendConfiguration) {
+		checkNotFrozen();
 		this.preSendConfiguration = preSendConfiguration;
 	}
 
@@ -0,0 +1,203 @@
+package javapns.notification;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>The pending result of a notification submitted for asynchronous delivery.</p>
+ *
+ * <p>A PushFuture goes through two stages:</p>
+ * <ul>
+ * <li><b>written</b>: the notification has been streamed out to Apple (see {@link #isWritten()} and {@link #awaitWritten(long)});</li>
+ * <li><b>done</b>: the outcome of the notification is final, because an error-response packet was received for it,
+ * because it could not be pushed at all, or because the connection it was pushed on was closed without Apple
+ * reporting any error about it (see {@link #isDone()} and {@link #get()}).</li>
+ * </ul>
+ *
+ * <p>Once done, {@link #get()} returns the PushedNotification, whose isSuccessful(), getResponse() and getException()
+ * methods describe the outcome.  A failed push does not cause get() to throw an ExecutionException.</p>
+ *
+ * <p>Listeners can be added to be notified of both stages without blocking any thread.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class PushFuture implements Future<PushedNotification> {
+
+	private PushedNotification notification;
+	private boolean written = false;
+	private boolean done = false;
+	private List<PushFutureListener> listeners;
+
+
+	/**
+	 * Create a future that will be bound to a notification when it is pushed.
+	 */
+	public PushFuture() {
+	}
+
+
+	/**
+	 * Bind this future to the notification it tracks, and catch up with the notification's current state.
+	 *
+	 * @param notification the notification
+	 */
+	public void bind(PushedNotification notification) {
+		synchronized (this) {
+			this.notification = notification;
+		}
+		notification.setFuture(this);
+	}
+
+
+	/**
+	 * Invoked when the notification has been streamed out.
+	 */
+	void written() {
+		List<PushFutureListener> toNotify;
+		synchronized (this) {
+			if (written || done) return;
+			written = true;
+			notifyAll();
+			toNotify = listeners == null ? null : new ArrayList<PushFutureListener>(listeners);
+		}
+		if (toNotify != null) for (PushFutureListener listener : toNotify)
+			listener.eventWritten(this);
+	}
+
+
+	/**
+	 * Invoked when the outcome of the notification is final.
+	 */
+	void complete() {
+		List<PushFutureListener> toNotify;
+		synchronized (this) {
+			if (done) return;
+			done = true;
+			notifyAll();
+			toNotify = listeners;
+			listeners = null;
+		}
+		if (toNotify != null) for (PushFutureListener listener : toNotify)
+			listener.eventCompleted(this);
+	}
+
+
+	/**
+	 * Provide a listener to notify when the notification is written and when its outcome is final.
+	 * If either stage was already reached, the listener is notified immediately.
+	 *
+	 * @param listener a listener
+	 */
+	public void addListener(PushFutureListener listener) {
+		boolean alreadyWritten;
+		boolean alreadyDone;
+		synchronized (this) {
+			alreadyWritten = written;
+			alreadyDone = done;
+			if (!done) {
+				if (listeners == null) listeners = new ArrayList<PushFutureListener>(1);
+				listeners.add(listener);
+			}
+		}
+		if (alreadyWritten) listener.eventWritten(this);
+		if (alreadyDone) listener.eventCompleted(this);
+	}
+
+
+	/**
+	 * Asynchronous pushes cannot be cancelled.
+	 *
+	 * @return false
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+
+	public boolean isCancelled() {
+		return false;
+	}
+
+
+	/**
+	 * Indicates if the outcome of the notification is final.
+	 *
+	 * @return true if the notification failed or if Apple can no longer report an error about it
+	 */
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+
+	/**
+	 * Indicates if the notification has been streamed out to Apple.
+	 *
+	 * @return true if the notification was written to a connection
+	 */
+	public synchronized boolean isWritten() {
+		return written;
+	}
+
+
+	/**
+	 * Wait until the notification has been streamed out to Apple, or until its outcome is final (if it could not be written).
+	 *
+	 * @param timeout the maximum number of milliseconds to wait
+	 * @return true if the notification was written
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean awaitWritten(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!written && !done) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) break;
+			wait(remaining);
+		}
+		return written;
+	}
+
+
+	/**
+	 * Wait until the outcome of the notification is final.
+	 *
+	 * @return the pushed notification
+	 * @throws InterruptedException
+	 */
+	public synchronized PushedNotification get() throws InterruptedException {
+		while (!done) {
+			wait();
+		}
+		return notification;
+	}
+
+
+	/**
+	 * Wait until the outcome of the notification is final, or until a timeout elapses.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return the pushed notification
+	 * @throws InterruptedException
+	 * @throws TimeoutException if the outcome is not final before the timeout elapses
+	 */
+	public synchronized PushedNotification get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		while (!done) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) throw new TimeoutException();
+			wait(remaining);
+		}
+		return notification;
+	}
+
+
+	/**
+	 * Get the notification tracked by this future, without waiting.
+	 *
+	 * @return the notification, or null if it has not been pushed yet
+	 */
+	public synchronized PushedNotification getNotification() {
+		return notification;
+	}
+
+}
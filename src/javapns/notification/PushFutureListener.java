@@ -0,0 +1,26 @@
+package javapns.notification;
+
+/**
+ * <p>An event listener for tracking notifications submitted for asynchronous delivery.</p>
+ *
+ * <p>Events are fired by the thread that pushes the notification or reads error-response packets,
+ * so implementations should return quickly.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public interface PushFutureListener {
+
+	/**
+	 * The notification has been streamed out to Apple.
+	 * @param future the future tracking the notification
+	 */
+	public void eventWritten(PushFuture future);
+
+
+	/**
+	 * The outcome of the notification is final.  Use future.getNotification() to find out if it was successful.
+	 * @param future the future tracking the notification
+	 */
+	public void eventCompleted(PushFuture future);
+
+}
@@ -12,6 +12,7 @@ import javapns.communication.exceptions.*;
 import javapns.devices.*;
 import javapns.devices.exceptions.*;
 import javapns.devices.implementations.basic.*;
+import javapns.json.*;
 import javapns.notification.exceptions.*;
 
 import javax.net.ssl.*;
@@ -43,7 +44,22 @@ public class PushNotificationManager {
 	private static final int DEFAULT_RETRIES = 3;
 
 	/* Special identifier that tells the manager to generate a sequential identifier for each payload pushed */
-	private static final int SEQUENTIAL_IDENTIFIER = -1;
+	public static final int SEQUENTIAL_IDENTIFIER = -1;
+
+	/* Default batch size when batching is enabled without specifying one */
+	public static final int DEFAULT_BATCH_SIZE = 16 * 1024;
+
+	/* Default number of milliseconds a batch can be held before being written out */
+	public static final long DEFAULT_BATCH_WINDOW = 2;
+
+	/* Default number of milliseconds to wait for late error-responses when using continuous response reading */
+	public static final long DEFAULT_ERROR_RESPONSE_GRACE_PERIOD = 1000;
+
+	/* Default number of notifications retained for resending after an error-response */
+	private static final int DEFAULT_IN_FLIGHT_WINDOW_SIZE = 4096;
+
+	/* Maximum number of milliseconds to wait for a standby connection which is still being opened */
+	private static final long STANDBY_CONNECTION_TIMEOUT = 10 * 1000;
 
 	private static boolean useEnhancedNotificationFormat = true;
 
@@ -71,7 +87,58 @@ public class PushNotificationManager {
 	@Deprecated
 	private DeviceFactory deviceFactory;
 
-	private LinkedHashMap<Integer, PushedNotification> pushedNotifications = new LinkedHashMap<Integer, PushedNotification>();
+	/* Most recent notifications pushed over the current connection, retained for resending after an error-response */
+	private PushedNotificationWindow pushedNotifications = new PushedNotificationWindow(DEFAULT_IN_FLIGHT_WINDOW_SIZE);
+
+	/* Reusable buffer in which outgoing messages are built */
+	private final NotificationFrameEncoder frameEncoder = new NotificationFrameEncoder();
+
+	/* Reusable buffer the payload is serialized into before being framed */
+	private final JSONByteWriter payloadWriter = new JSONByteWriter();
+
+	/* Maximum number of bytes to accumulate before writing messages out in a single write (0 disables batching) */
+	private int batchSize = 0;
+
+	/* Maximum number of milliseconds a message can be held in a batch, checked as messages are added and by flushIfDue() */
+	private long batchWindow = DEFAULT_BATCH_WINDOW;
+
+	/* Sink to report outcomes to as soon as they are final, if any */
+	private PushResultSink resultSink;
+
+
+	/* Messages accumulated while batching */
+	private byte[] batchBuffer;
+	private int batchLength = 0;
+	private long batchStarted;
+	private List<PushedNotification> batchedNotifications = new ArrayList<PushedNotification>();
+
+	/* Read error-response packets in a dedicated thread while pushing, instead of only when stopping the connection */
+	private boolean continuousResponseReading = false;
+
+	/* Number of milliseconds to wait for late error-response packets before considering a connection clean */
+	private long errorResponseGracePeriod = DEFAULT_ERROR_RESPONSE_GRACE_PERIOD;
+
+	/* Reader monitoring the active socket when continuous response reading is enabled */
+	private ResponsePacketReader responseReader;
+
+	/* Error-response packets received by the reader but not yet processed */
+	private final List<ResponsePacket> receivedResponses = new Vector<ResponsePacket>();
+
+	/* Indicates that notifications ignored by Apple are currently being resent */
+	private boolean resending = false;
+
+	/* Open replacement connections in the background before they are needed */
+	private boolean standbyConnections = false;
+	private StandbyConnection standbyConnection;
+
+	/* Time at which the active connection was replaced, until the first byte is written to the new one */
+	private long reconnectStarted = 0;
+	private long restarts = 0;
+	private long totalRestartLatency = 0;
+	private long maximumRestartLatency = 0;
+
+
+
 
 
 	/**
@@ -103,7 +170,8 @@ public class PushNotificationManager {
 	public void initializeConnection(AppleNotificationServer server) throws CommunicationException, KeystoreException {
 		try {
 			this.connectionToAppleServer = new ConnectionToNotificationServer(server);
-			this.socket = connectionToAppleServer.getSSLSocket();
+			this.socket = openSocket();
+			startResponseReader();
 
 			if (heavyDebugMode) {
 				dumpCertificateChainDescription();
@@ -119,6 +187,26 @@ public class PushNotificationManager {
 	}
 
 
+	/**
+	 * Perform the TLS handshake on the current connection right away.
+	 * 
+	 * The handshake normally occurs when the first notification is written.
+	 * Invoking this method after initializeConnection(..) makes the connection ready to push
+	 * without delay, and reports certificate or network problems as soon as possible.
+	 * 
+	 * @throws CommunicationException thrown if the handshake fails
+	 * @throws KeystoreException thrown if Apple rejects the certificate chain
+	 */
+	public void completeHandshake() throws CommunicationException, KeystoreException {
+		try {
+			socket.startHandshake();
+		} catch (IOException e) {
+			if (e.toString().contains("certificate_unknown")) throw new InvalidCertificateChainException(e.getMessage());
+			throw new CommunicationException("Error completing handshake with Apple server", e);
+		}
+	}
+
+
 	private void dumpCertificateChainDescription() {
 		try {
 			File file = new File("apns-certificatechain.txt");
@@ -168,7 +256,7 @@ public class PushNotificationManager {
 	 * @throws KeystoreException thrown if there is a problem with your keystore
 	 */
 	public void restartConnection(AppleNotificationServer server) throws CommunicationException, KeystoreException {
-		stopConnection();
+		closeConnection();
 		initializeConnection(server);
 	}
 
@@ -179,6 +267,7 @@ public class PushNotificationManager {
 	 * @throws KeystoreException thrown if there is a problem with your keystore
 	 */
 	private void restartPreviousConnection() throws CommunicationException, KeystoreException {
+		stopResponseReader();
 		try {
 			logger.debug("Closing connection to restart previous one");
 			this.socket.close();
@@ -186,6 +275,7 @@ public class PushNotificationManager {
 			/* Do not complain if connection is already closed... */
 		}
 		initializePreviousConnection();
+		prepareStandbyConnection();
 	}
 
 
@@ -195,13 +285,28 @@ public class PushNotificationManager {
 	 * @throws KeystoreException thrown if there is a problem with your keystore
 	 */
 	public void stopConnection() throws CommunicationException, KeystoreException {
+		discardStandbyConnection();
+		closeConnection();
+	}
+
+
+	/**
+	 * Read and process any pending error-responses, and then close the connection, keeping any standby connection.
+	 * @throws CommunicationException thrown if a communication error occurs
+	 * @throws KeystoreException thrown if there is a problem with your keystore
+	 */
+	private void closeConnection() throws CommunicationException, KeystoreException {
+		flush();
 		processedFailedNotifications();
+		stopResponseReader();
 		try {
 			logger.debug("Closing connection");
 			this.socket.close();
 		} catch (Exception e) {
 			/* Do not complain if connection is already closed... */
 		}
+		/* Apple can no longer report errors about notifications pushed on this connection */
+		pushedNotifications.clear();
 	}
 
 
@@ -220,31 +325,14 @@ public class PushNotificationManager {
 	private int processedFailedNotifications() throws CommunicationException, KeystoreException {
 		if (useEnhancedNotificationFormat) {
 			logger.debug("Reading responses");
-			int responsesReceived = ResponsePacketReader.processResponses(this);
+			flush();
+			List<ResponsePacket> responses = readResponses();
+			int responsesReceived = responses.size();
 			while (responsesReceived > 0) {
-				PushedNotification skippedNotification = null;
-				List<PushedNotification> notificationsToResend = new ArrayList<PushedNotification>();
-				boolean foundFirstFail = false;
-				for (PushedNotification notification : pushedNotifications.values()) {
-					if (foundFirstFail || !notification.isSuccessful()) {
-						if (foundFirstFail) notificationsToResend.add(notification);
-						else {
-							foundFirstFail = true;
-							skippedNotification = notification;
-						}
-					}
-				}
-				pushedNotifications.clear();
-				int toResend = notificationsToResend.size();
-				logger.debug("Found " + toResend + " notifications that must be re-sent");
-				if (toResend > 0) {
-					logger.debug("Restarting connection to resend notifications");
-					restartPreviousConnection();
-					for (PushedNotification pushedNotification : notificationsToResend) {
-						sendNotification(pushedNotification, false);
-					}
-				}
-				int remaining = responsesReceived = ResponsePacketReader.processResponses(this);
+				resendNotificationsAfterFailure(responses, new ArrayList<PushedNotification>());
+				flush();
+				responses = readResponses();
+				int remaining = responsesReceived = responses.size();
 				if (remaining == 0) {
 					logger.debug("No notifications remaining to be resent");
 					return 0;
@@ -258,6 +346,214 @@ public class PushNotificationManager {
 	}
 
 
+	/**
+	 * Resend all notifications that were pushed after the first one that failed.
+	 * 
+	 * Apple ignores all messages following the one identified in an error-response packet
+	 * and closes the connection, so the connection is restarted before resending them.
+	 * If several packets were received, the earliest failed notification is used.
+	 * 
+	 * Batched messages which were discarded without being written are always resent,
+	 * even if the failed notification is no longer in the in-flight window.  Packets about
+	 * notifications no longer in the window are otherwise ignored.
+	 * 
+	 * @param responses error-response packets received
+	 * @param discarded batched notifications discarded without being written
+	 * @throws CommunicationException thrown if a communication error occurs
+	 * @throws KeystoreException thrown if there is a problem with your keystore
+	 */
+	private void resendNotificationsAfterFailure(List<ResponsePacket> responses, List<PushedNotification> discarded) throws CommunicationException, KeystoreException {
+		int firstFail = -1;
+		for (ResponsePacket response : responses) {
+			int position = pushedNotifications.positionOf(response.getIdentifier());
+			if (position < 0) logger.warn("Notification " + response.getIdentifier() + " reported by Apple is no longer in the in-flight window; notifications pushed after it cannot be resent");
+			else if (firstFail < 0 || position < firstFail) firstFail = position;
+		}
+		if (firstFail < 0 && discarded.isEmpty()) {
+			/* Nothing in the window is known to have failed, so leave in-flight notifications open */
+			return;
+		}
+		List<PushedNotification> notificationsToResend;
+		if (firstFail >= 0) {
+			notificationsToResend = pushedNotifications.drainAfter(firstFail);
+		} else {
+			/* Batched notifications are the most recent ones:  collect them without closing them along with the others */
+			int firstDiscarded = -1;
+			for (PushedNotification notification : discarded) {
+				int position = pushedNotifications.positionOf(notification.getIdentifier());
+				if (position >= 0 && (firstDiscarded < 0 || position < firstDiscarded)) firstDiscarded = position;
+			}
+			int count = firstDiscarded < 0 ? 0 : pushedNotifications.size() - firstDiscarded;
+			notificationsToResend = pushedNotifications.drainLast(count);
+		}
+		for (PushedNotification notification : discarded) {
+			if (!notificationsToResend.contains(notification)) notificationsToResend.add(notification);
+		}
+		int toResend = notificationsToResend.size();
+		logger.debug("Found " + toResend + " notifications that must be re-sent");
+		if (toResend > 0) {
+			logger.debug("Restarting connection to resend notifications");
+			resending = true;
+			try {
+				restartPreviousConnection();
+				for (PushedNotification pushedNotification : notificationsToResend) {
+					sendNotification(pushedNotification, null, false);
+				}
+			} finally {
+				resending = false;
+			}
+		}
+	}
+
+
+	/**
+	 * Read error-response packets from the current connection.
+	 * 
+	 * If continuous response reading is enabled, packets have already been read
+	 * by the reader thread, so this method only waits for the error-response grace
+	 * period to elapse (or for the connection to be closed by Apple, whichever
+	 * comes first).  Otherwise, it reads from the socket until its timeout.
+	 * 
+	 * @return the error-response packets received
+	 */
+	private List<ResponsePacket> readResponses() {
+		if (responseReader == null) return ResponsePacketReader.processResponses(this);
+		responseReader.waitUntilFinished(errorResponseGracePeriod);
+		return takeReceivedResponses();
+	}
+
+
+	/**
+	 * Immediately process error-response packets already received by the continuous
+	 * response reader, if any, by resending all notifications pushed after the failed one.
+	 * 
+	 * Messages still held in a batch are discarded rather than written out, as they were
+	 * destined to the connection that Apple closed and are resent along with the others.
+	 * 
+	 * This method has no effect unless continuous response reading is enabled.
+	 * 
+	 * @return the number of error-response packets processed
+	 * @throws CommunicationException thrown if a communication error occurs
+	 * @throws KeystoreException thrown if there is a problem with your keystore
+	 */
+	public int processReceivedResponses() throws CommunicationException, KeystoreException {
+		if (resending) return 0;
+		List<ResponsePacket> responses = takeReceivedResponses();
+		if (responses.isEmpty()) return 0;
+		logger.debug("Processing " + responses.size() + " error-response packets received while pushing");
+		List<PushedNotification> discarded = new ArrayList<PushedNotification>(batchedNotifications);
+		batchLength = 0;
+		batchedNotifications.clear();
+		resendNotificationsAfterFailure(responses, discarded);
+		return responses.size();
+	}
+
+
+	/**
+	 * Invoked by the continuous response reader when an error-response packet is received.
+	 * 
+	 * @param packet the packet received
+	 */
+	void responsePacketReceived(ResponsePacket packet) {
+		logger.debug("Received error-response packet: " + packet.getMessage());
+		receivedResponses.add(packet);
+	}
+
+
+	private List<ResponsePacket> takeReceivedResponses() {
+		synchronized (receivedResponses) {
+			List<ResponsePacket> responses = new ArrayList<ResponsePacket>(receivedResponses);
+			receivedResponses.clear();
+			return responses;
+		}
+	}
+
+
+	/**
+	 * Open a socket to replace the active one, using the standby connection if one was prepared.
+	 * 
+	 * @return a connected socket
+	 * @throws CommunicationException thrown if a communication error occurs
+	 * @throws KeystoreException thrown if there is a problem with your keystore
+	 */
+	private SSLSocket openSocket() throws CommunicationException, KeystoreException {
+		if (this.socket != null) reconnectStarted = System.currentTimeMillis();
+		StandbyConnection standby = this.standbyConnection;
+		this.standbyConnection = null;
+		if (standby != null) {
+			if (standby.getServer() == connectionToAppleServer.getServer()) {
+				SSLSocket standbySocket = standby.take(STANDBY_CONNECTION_TIMEOUT);
+				if (standbySocket != null) {
+					logger.debug("Switching to standby connection");
+					return standbySocket;
+				}
+			} else {
+				standby.discard();
+			}
+		}
+		return connectionToAppleServer.getSSLSocket();
+	}
+
+
+	/**
+	 * Start opening a connection in the background, so that it is ready to replace
+	 * the active connection without delay.  This method has no effect unless standby
+	 * connections are enabled, or if a standby connection is already being prepared.
+	 * 
+	 * NotificationThread objects invoke this method shortly before rotating connections.
+	 */
+	public void prepareStandbyConnection() {
+		if (!standbyConnections || connectionToAppleServer == null || standbyConnection != null) return;
+		standbyConnection = new StandbyConnection((AppleNotificationServer) connectionToAppleServer.getServer());
+		standbyConnection.start();
+	}
+
+
+	private void discardStandbyConnection() {
+		if (standbyConnection != null) {
+			standbyConnection.discard();
+			standbyConnection = null;
+		}
+	}
+
+
+	/**
+	 * Record the latency of the last restart once the first byte was written to the new connection.
+	 */
+	private void firstByteWritten() {
+		if (reconnectStarted == 0) return;
+		long latency = System.currentTimeMillis() - reconnectStarted;
+		reconnectStarted = 0;
+		restarts++;
+		totalRestartLatency += latency;
+		if (latency > maximumRestartLatency) maximumRestartLatency = latency;
+	}
+
+
+	/**
+	 * Start monitoring the active socket for error-response packets, if continuous response reading is enabled.
+	 */
+	private void startResponseReader() {
+		stopResponseReader();
+		if (continuousResponseReading && useEnhancedNotificationFormat) {
+			responseReader = new ResponsePacketReader(this, socket);
+			responseReader.start();
+		}
+	}
+
+
+	/**
+	 * Stop monitoring the active socket for error-response packets.  This closes the socket
+	 * and waits for the reader to end, so that it cannot report packets once a new socket is opened.
+	 */
+	private void stopResponseReader() {
+		if (responseReader != null) {
+			responseReader.stop();
+			responseReader = null;
+		}
+	}
+
+
 	/**
 	 * Send a notification to a single device and close the connection.
 	 * 
@@ -346,44 +642,159 @@ public class PushNotificationManager {
 	 * @throws CommunicationException thrown if a communication error occurs
 	 */
 	public PushedNotification sendNotification(Device device, Payload payload, boolean closeAfter, int identifier) throws CommunicationException {
+		return sendNotification(device, payload, closeAfter, identifier, null);
+	}
+
+
+	/**
+	 * Send a notification (Payload) to the given device, and bind the notification to a future
+	 * which completes once the outcome of the notification is final.
+	 * 
+	 * @param device the device to be notified
+	 * @param payload the payload to send
+	 * @param closeAfter indicates if the connection should be closed after the payload has been sent
+	 * @param identifier a unique identifier which will match any error reported later (if any)
+	 * @param future a future to bind to the notification, or null
+	 * @return a pushed notification with details on transmission result and error (if any)
+	 * @throws CommunicationException thrown if a communication error occurs
+	 */
+	public PushedNotification sendNotification(Device device, Payload payload, boolean closeAfter, int identifier, PushFuture future) throws CommunicationException {
+		return sendNotification(device, payload, closeAfter, identifier, future, -1);
+	}
+
+
+	/**
+	 * Send a notification (Payload) to the given device, and record the position of the device in the
+	 * list of devices being pushed to, so that results can refer to the device by index.
+	 * 
+	 * @param device the device to be notified
+	 * @param payload the payload to send
+	 * @param closeAfter indicates if the connection should be closed after the payload has been sent
+	 * @param identifier a unique identifier which will match any error reported later (if any)
+	 * @param future a future to bind to the notification, or null
+	 * @param deviceIndex the position of the device in the list of devices being pushed to, or -1 if unknown
+	 * @return a pushed notification with details on transmission result and error (if any)
+	 * @throws CommunicationException thrown if a communication error occurs
+	 */
+	public PushedNotification sendNotification(Device device, Payload payload, boolean closeAfter, int identifier, PushFuture future, int deviceIndex) throws CommunicationException {
 		PushedNotification pushedNotification = new PushedNotification(device, payload, identifier);
-		sendNotification(pushedNotification, closeAfter);
+		pushedNotification.setDeviceIndex(deviceIndex);
+		if (future != null) future.bind(pushedNotification);
+		if (resultSink != null) pushedNotification.setSink(resultSink);
+		try {
+			sendNotification(pushedNotification, null, closeAfter);
+		} catch (CommunicationException e) {
+			pushedNotification.setException(e);
+			throw e;
+		}
+		return pushedNotification;
+	}
+
+
+	/**
+	 * Send a notification to the given device using a frame pre-encoded from a payload which is
+	 * being pushed to many devices.  The notification is encoded by patching the frame's template
+	 * instead of serializing the payload again, so the bytes sent are those captured when the frame
+	 * was created, even if the payload was changed since.  Tokens which cannot be patched into the
+	 * template are sent with the payload serialized as usual.
+	 * 
+	 * @param device the device to be notified
+	 * @param frame a frame built from the payload to send
+	 * @param closeAfter indicates if the connection should be closed after the payload has been sent
+	 * @param identifier a unique identifier which will match any error reported later (if any)
+	 * @param future a future to bind to the notification, or null
+	 * @param deviceIndex the position of the device in the list of devices being pushed to, or -1 if unknown
+	 * @return a pushed notification with details on transmission result and error (if any)
+	 * @throws CommunicationException thrown if a communication error occurs
+	 */
+	public PushedNotification sendNotification(Device device, BroadcastFrame frame, boolean closeAfter, int identifier, PushFuture future, int deviceIndex) throws CommunicationException {
+		PushedNotification pushedNotification = new PushedNotification(device, frame.getPayload(), identifier);
+		pushedNotification.setDeviceIndex(deviceIndex);
+		if (future != null) future.bind(pushedNotification);
+		if (resultSink != null) pushedNotification.setSink(resultSink);
+		try {
+			sendNotification(pushedNotification, frame, closeAfter);
+		} catch (CommunicationException e) {
+			pushedNotification.setException(e);
+			throw e;
+		}
 		return pushedNotification;
 	}
 
 
+
+	/**
+	 * Submit a notification for asynchronous delivery over the current connection.
+	 * 
+	 * The notification is written right away (or added to the current batch, if batching is enabled),
+	 * but its outcome only becomes final once Apple can no longer report an error about it:  when an
+	 * error-response packet is received for it, or when the connection is stopped or restarted.
+	 * Callers can therefore pipeline many notifications and collect results through the returned
+	 * futures, without polling lists of pushed notifications.  Enabling continuous response reading
+	 * lets futures complete as soon as Apple reports an error.
+	 * 
+	 * @param device the device to be notified
+	 * @param payload the payload to send
+	 * @return a future tracking the notification
+	 */
+	public PushFuture submitNotification(Device device, Payload payload) {
+		PushFuture future = new PushFuture();
+		try {
+			sendNotification(device, payload, false, SEQUENTIAL_IDENTIFIER, future);
+		} catch (CommunicationException e) {
+			/* The notification already carries the exception, which completed the future */
+		}
+		return future;
+	}
+
+
 	/**
 	 * Actual action of sending a notification
 	 * 
 	 * @param notification the ready-to-push notification
+	 * @param frame a frame pre-encoded from the notification's payload, or null to serialize the payload
 	 * @param closeAfter indicates if the connection should be closed after the payload has been sent
 	 * @throws CommunicationException thrown if a communication error occurs
 	 */
-	private void sendNotification(PushedNotification notification, boolean closeAfter) throws CommunicationException {
+	private void sendNotification(PushedNotification notification, BroadcastFrame frame, boolean closeAfter) throws CommunicationException {
 		try {
 			Device device = notification.getDevice();
 			Payload payload = notification.getPayload();
-			try {
-				payload.verifyPayloadIsNotEmpty();
-			} catch (IllegalArgumentException e) {
-				throw new PayloadIsEmptyException();
-			} catch (Exception e) {
+			/* A broadcast frame was verified when it was built */
+			if (frame == null) {
+				try {
+					payload.verifyPayloadIsNotEmpty();
+				} catch (IllegalArgumentException e) {
+					throw new PayloadIsEmptyException();
+				} catch (Exception e) {
+				}
 			}
 
+			/* Resend anything that Apple reported as ignored before pushing more */
+			processReceivedResponses();
+
 			if (notification.getIdentifier() <= 0) notification.setIdentifier(newMessageIdentifier());
-			if (!pushedNotifications.containsKey(notification.getIdentifier())) pushedNotifications.put(notification.getIdentifier(), notification);
+			pushedNotifications.add(notification);
 			int identifier = notification.getIdentifier();
 
 			String token = device.getToken();
 			// even though the BasicDevice constructor validates the token, we revalidate it in case we were passed another implementation of Device
 			BasicDevice.validateTokenFormat(token);
-			//		PushedNotification pushedNotification = new PushedNotification(device, payload);
-			byte[] bytes = getMessage(token, payload, identifier, notification);
-			//		pushedNotifications.put(pushedNotification.getIdentifier(), pushedNotification);
+			ByteBuffer message = getMessage(token, payload, frame, identifier, notification);
+			byte[] bytes = message.array();
+			int offset = message.arrayOffset();
+			int length = message.limit();
 
 			/* Special simulation mode to skip actual streaming of message */
 			boolean simulationMode = payload.getExpiry() == 919191;
 
+			if (isBatching() && !simulationMode) {
+				notification.setTransmissionAttempts(0);
+				notification.addTransmissionAttempt();
+				addToBatch(notification, bytes, offset, length);
+				return;
+			}
+
 			boolean success = false;
 
 			BufferedReader in = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
@@ -399,10 +810,10 @@ public class PushNotificationManager {
 					boolean streamConfirmed = false;
 					try {
 						if (!simulationMode) {
-							this.socket.getOutputStream().write(bytes);
+							this.socket.getOutputStream().write(bytes, offset, length);
 							streamConfirmed = true;
 						} else {
-							logger.debug("* Simulation only: would have streamed " + bytes.length + "-bytes message now..");
+							logger.debug("* Simulation only: would have streamed " + length + "-bytes message now..");
 						}
 					} catch (Exception e) {
 						if (e != null) {
@@ -414,7 +825,8 @@ public class PushNotificationManager {
 					}
 					logger.debug("Flushing");
 					this.socket.getOutputStream().flush();
-					if (streamConfirmed) logger.debug("At this point, the entire " + bytes.length + "-bytes message has been streamed out successfully through the SSL connection");
+					if (streamConfirmed) firstByteWritten();
+					if (streamConfirmed) logger.debug("At this point, the entire " + length + "-bytes message has been streamed out successfully through the SSL connection");
 
 					success = true;
 					logger.debug("Notification sent on " + notification.getLatestTransmissionAttempt());
@@ -429,16 +841,25 @@ public class PushNotificationManager {
 						logger.error("Delivery error", e);
 						throw e;
 
+					} else if (responseReader != null && !resending && responseReader.waitUntilFinished(errorResponseGracePeriod) && !receivedResponses.isEmpty()) {
+						/* Apple closed the connection after reporting an error, so resend everything it ignored (including this notification) */
+						logger.info("Attempt failed (" + e.getMessage() + ") after an error-response was received... resending");
+						processReceivedResponses();
+						return;
+
 					} else {
 						logger.info("Attempt failed (" + e.getMessage() + ")... trying again");
 						//Try again
+						stopResponseReader();
 						try {
 							this.socket.close();
 						} catch (Exception e2) {
 							// do nothing
 						}
-						this.socket = connectionToAppleServer.getSSLSocket();
+						this.socket = openSocket();
 						if (socketTimeout > 0) this.socket.setSoTimeout(socketTimeout);
+						startResponseReader();
+						prepareStandbyConnection();
 					}
 				}
 			}
@@ -459,6 +880,128 @@ public class PushNotificationManager {
 	}
 
 
+	/**
+	 * Append a message to the current batch, and write the batch out if it
+	 * reached its maximum size or if its time window has elapsed.
+	 * 
+	 * @param notification the notification being sent
+	 * @param bytes an array containing the message
+	 * @param offset the offset of the message in the array
+	 * @param length the length of the message
+	 * @throws CommunicationException thrown if a communication error occurs
+	 * @throws KeystoreException thrown if there is a problem with your keystore
+	 */
+	private void addToBatch(PushedNotification notification, byte[] bytes, int offset, int length) throws CommunicationException, KeystoreException {
+		if (batchLength + length > batchSize) flush();
+		else flushIfDue(0);
+		if (batchLength == 0) batchStarted = System.currentTimeMillis();
+		if (batchBuffer == null || batchBuffer.length < batchLength + length) {
+			byte[] buffer = new byte[Math.max(batchSize, batchLength + length)];
+			if (batchBuffer != null) System.arraycopy(batchBuffer, 0, buffer, 0, batchLength);
+			batchBuffer = buffer;
+		}
+		System.arraycopy(bytes, offset, batchBuffer, batchLength, length);
+		batchLength += length;
+		batchedNotifications.add(notification);
+		logger.debug("Added " + length + "-bytes message to batch (" + batchLength + " bytes pending)");
+
+		if (batchLength >= batchSize || System.currentTimeMillis() - batchStarted >= batchWindow) flush();
+	}
+
+
+	/**
+	 * Write out the pending batch if its time window has elapsed, or will elapse within the given delay.
+	 * 
+	 * This manager does not run a timer of its own, so the batch window is only checked when
+	 * a message is added and when this method is invoked.  Invoke it before pausing between
+	 * messages, so that batched messages are not held longer than the batch window.
+	 * 
+	 * @param delay the number of milliseconds before the next message is added (0 to check the time elapsed only)
+	 * @throws CommunicationException thrown if a communication error occurs
+	 * @throws KeystoreException thrown if there is a problem with your keystore
+	 */
+	public void flushIfDue(long delay) throws CommunicationException, KeystoreException {
+		if (batchLength > 0 && System.currentTimeMillis() + delay - batchStarted >= batchWindow) flush();
+	}
+
+
+	/**
+	 * Write out any batched messages in a single write, and flush the connection.
+	 * 
+	 * This method has no effect if batching is disabled or if no message is pending.
+	 * If the batch cannot be written after the number of retry attempts allowed,
+	 * all notifications it contains are marked as failed.
+	 * 
+	 * @throws CommunicationException thrown if a communication error occurs
+	 * @throws KeystoreException thrown if there is a problem with your keystore
+	 */
+	public void flush() throws CommunicationException, KeystoreException {
+		processReceivedResponses();
+		if (batchLength == 0) return;
+		int attempts = 0;
+		try {
+			while (true) {
+				attempts++;
+				try {
+					OutputStream output = this.socket.getOutputStream();
+					output.write(batchBuffer, 0, batchLength);
+					output.flush();
+					firstByteWritten();
+					logger.debug("Flushed " + batchedNotifications.size() + " notifications (" + batchLength + " bytes) in a single write");
+					for (PushedNotification notification : batchedNotifications)
+						notification.setTransmissionCompleted(true);
+					return;
+				} catch (IOException e) {
+					if (e.toString().contains("certificate_unknown")) {
+						failBatch(new InvalidCertificateChainException(e.getMessage()));
+						return;
+					}
+					if (attempts >= retryAttempts) {
+						logger.error("Attempt to flush batch failed and beyond the maximum number of attempts permitted", e);
+						failBatch(e);
+						return;
+					}
+					if (responseReader != null && !resending && responseReader.waitUntilFinished(errorResponseGracePeriod) && !receivedResponses.isEmpty()) {
+						/* Apple closed the connection after reporting an error, so resend everything it ignored (including this batch) */
+						logger.info("Attempt to flush batch failed (" + e.getMessage() + ") after an error-response was received... resending");
+						processReceivedResponses();
+						flush();
+						return;
+					}
+					logger.info("Attempt to flush batch failed (" + e.getMessage() + ")... trying again");
+					for (PushedNotification notification : batchedNotifications)
+						notification.addTransmissionAttempt();
+					stopResponseReader();
+					try {
+						this.socket.close();
+					} catch (Exception e2) {
+						// do nothing
+					}
+					this.socket = openSocket();
+					try {
+						int socketTimeout = getSslSocketTimeout();
+						if (socketTimeout > 0) this.socket.setSoTimeout(socketTimeout);
+					} catch (Exception e2) {
+					}
+					startResponseReader();
+					prepareStandbyConnection();
+				}
+			}
+		} finally {
+			batchLength = 0;
+			batchedNotifications.clear();
+		}
+	}
+
+
+	private void failBatch(Exception exception) {
+		for (PushedNotification notification : batchedNotifications) {
+			notification.setTransmissionCompleted(false);
+			notification.setException(exception);
+		}
+	}
+
+
 	/**
 	 * Add a device
 	 * @param id The device id
@@ -528,94 +1071,71 @@ public class PushNotificationManager {
 	 * or enhanced notification format:
 	 * COMMAND | !Identifier! | !Expiry! | TOKENLENGTH| DEVICETOKEN | PAYLOADLENGTH | PAYLOAD
 	 * See page 30 of Apple Push Notification Service Programming Guide
+	 * 
+	 * The message is encoded into this manager's reusable frame buffer, so the returned
+	 * buffer is only valid until the next message is built.
+	 * 
 	 * @param deviceToken the deviceToken
 	 * @param payload the payload
+	 * @param broadcast a frame pre-encoded from the payload, or null
 	 * @param message 
-	 * @return the byteArray to write to the SSLSocket OutputStream
+	 * @return a buffer containing the message to write to the SSLSocket OutputStream
 	 * @throws IOException
 	 */
-	private byte[] getMessage(String deviceToken, Payload payload, int identifier, PushedNotification message) throws IOException, Exception {
+	private ByteBuffer getMessage(String deviceToken, Payload payload, BroadcastFrame broadcast, int identifier, PushedNotification message) throws IOException, Exception {
 		logger.debug("Building Raw message from deviceToken and payload");
 
 		/* To test with a corrupted or invalid token, uncomment following line*/
 		//deviceToken = deviceToken.substring(0,10);
 
-		// First convert the deviceToken (in hexa form) to a binary format
-		byte[] deviceTokenAsBytes = new byte[deviceToken.length() / 2];
-		deviceToken = deviceToken.toUpperCase();
-		int j = 0;
-		try {
-			for (int i = 0; i < deviceToken.length(); i += 2) {
-				String t = deviceToken.substring(i, i + 2);
-				int tmp = Integer.parseInt(t, 16);
-				deviceTokenAsBytes[j++] = (byte) tmp;
-			}
-		} catch (NumberFormatException e1) {
-			throw new InvalidDeviceTokenFormatException(deviceToken, e1.getMessage());
-		}
-		preconfigurePayload(payload, identifier, deviceToken);
-		// Create the ByteArrayOutputStream which will contain the raw interface
-		byte[] payloadAsBytes = payload.getPayloadAsBytes();
-		int size = (Byte.SIZE / Byte.SIZE) + (Character.SIZE / Byte.SIZE) + deviceTokenAsBytes.length + (Character.SIZE / Byte.SIZE) + payloadAsBytes.length;
-		ByteArrayOutputStream bao = new ByteArrayOutputStream(size);
-
-		// Write command to ByteArrayOutputStream
-		// 0 = simple
-		// 1 = enhanced
-		if (useEnhancedNotificationFormat) {
-			byte b = 1;
-			bao.write(b);
-		} else {
-			byte b = 0;
-			bao.write(b);
+		boolean broadcasting = broadcast != null && broadcast.accepts(deviceToken);
+		int payloadLength = 0;
+		if (!broadcasting) {
+			preconfigurePayload(payload, identifier, deviceToken);
+			payloadLength = payload.writePayload(payloadWriter);
 		}
 
+		// 4 bytes expiry (enhanced format only)
+		int expiry = 0;
 		if (useEnhancedNotificationFormat) {
-			// 4 bytes identifier (which will match any error packet received later on)
-			bao.write(intTo4ByteArray(identifier));
 			message.setIdentifier(identifier);
-
-			// 4 bytes
-			int requestedExpiry = payload.getExpiry();
-			if (requestedExpiry <= 0) {
-				bao.write(intTo4ByteArray(requestedExpiry));
-				message.setExpiry(0);
-			} else {
-				long ctime = System.currentTimeMillis();
-				long ttl = requestedExpiry * 1000; // time-to-live in milliseconds
-				Long expiryDateInSeconds = ((ctime + ttl) / 1000L);
-				bao.write(intTo4ByteArray(expiryDateInSeconds.intValue()));
-				message.setExpiry(ctime + ttl);
-			}
+			expiry = computeExpiry(payload, message);
 		}
-		// Write the TokenLength as a 16bits unsigned int, in big endian
-		int tl = deviceTokenAsBytes.length;
-		bao.write(intTo2ByteArray(tl));
-
-		// Write the Token in bytes
-		bao.write(deviceTokenAsBytes);
 
-		// Write the PayloadLength as a 16bits unsigned int, in big endian
-		int pl = payloadAsBytes.length;
-		bao.write(intTo2ByteArray(pl));
-
-		// Finally write the Payload
-		bao.write(payloadAsBytes);
-		bao.flush();
-
-		byte[] bytes = bao.toByteArray();
+		/* When broadcasting, the payload was serialized once and only the identifier, expiry and token are patched */
+		ByteBuffer frame = broadcasting ? frameEncoder.encode(broadcast, useEnhancedNotificationFormat, identifier, expiry, deviceToken) : frameEncoder.encode(useEnhancedNotificationFormat, identifier, expiry, deviceToken, payloadWriter.getBuffer(), 0, payloadLength);
 
 		if (heavyDebugMode) {
 			try {
 				FileOutputStream outf = new FileOutputStream("apns-message.bytes");
-				outf.write(bytes);
+				outf.write(frame.array(), frame.arrayOffset(), frame.limit());
 				outf.close();
 			} catch (Exception e) {
 			}
 		}
 
-		logger.debug("Built raw message ID " + identifier + " of total length " + bytes.length);
-		return bytes;
+		logger.debug("Built raw message ID " + identifier + " of total length " + frame.limit());
+		return frame;
+	}
+
+
+	/**
+	 * Compute the expiry date to send in an enhanced notification frame, and record it in the notification.
+	 * 
+	 * @param payload the payload, which specifies the requested expiry
+	 * @param message the notification being sent
+	 * @return the expiry date in seconds since the epoch, or the requested expiry if it is not positive
+	 */
+	public static int computeExpiry(Payload payload, PushedNotification message) {
+		int requestedExpiry = payload.getExpiry();
+		if (requestedExpiry <= 0) {
+			message.setExpiry(0);
+			return requestedExpiry;
+		}
+		long ctime = System.currentTimeMillis();
+		long ttl = requestedExpiry * 1000; // time-to-live in milliseconds
+		message.setExpiry(ctime + ttl);
+		return (int) ((ctime + ttl) / 1000L);
 	}
 
 
@@ -628,17 +1148,6 @@ public class PushNotificationManager {
 	}
 
 
-	private static final byte[] intTo4ByteArray(int value) {
-		return ByteBuffer.allocate(4).putInt(value).array();
-	}
-
-
-	private static final byte[] intTo2ByteArray(int value) {
-		int s1 = (value & 0xFF00) >> 8;
-		int s2 = value & 0xFF;
-		return new byte[] { (byte) s1, (byte) s2 };
-	}
-
 
 	/**
 	 * Set the number of retry attempts
@@ -672,6 +1181,170 @@ public class PushNotificationManager {
 	}
 
 
+	/**
+	 * Enable batching of messages with the default batch size and time window.
+	 * 
+	 * @see #setBatching(int, long)
+	 */
+	public void enableBatching() {
+		setBatching(DEFAULT_BATCH_SIZE, DEFAULT_BATCH_WINDOW);
+	}
+
+
+	/**
+	 * Configure batching of messages on the connection.
+	 * 
+	 * When batching is enabled, messages are accumulated in memory and written out
+	 * in a single write (and flushed) as soon as the batch reaches the given size
+	 * or when a message is added after the time window has elapsed.  Pending messages
+	 * are also written out by flush(), stopConnection() and before reading error-responses.
+	 * 
+	 * Since the time window is checked only when messages are added, callers which pause
+	 * between messages should invoke flushIfDue(long) before pausing.
+	 * 
+	 * Notifications held in a batch are not marked as transmitted until the batch
+	 * has actually been written out.
+	 * 
+	 * @param batchSize the maximum number of bytes to accumulate (0 to disable batching)
+	 * @param batchWindow the maximum number of milliseconds a message can be held in a batch
+	 */
+	public void setBatching(int batchSize, long batchWindow) {
+		this.batchSize = batchSize;
+		this.batchWindow = batchWindow;
+	}
+
+
+	/**
+	 * Get the maximum number of bytes accumulated before messages are written out.
+	 * @return a number of bytes, or 0 if batching is disabled
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+
+	/**
+	 * Get the maximum number of milliseconds a message can be held in a batch.
+	 * @return a number of milliseconds
+	 */
+	public long getBatchWindow() {
+		return batchWindow;
+	}
+
+
+	/**
+	 * Determine if batching is enabled.
+	 * @return true if messages are batched, false if each message is written out individually
+	 */
+	public boolean isBatching() {
+		return batchSize > 0;
+	}
+
+
+	/**
+	 * Enable or disable continuous reading of error-response packets (disabled by default).
+	 * 
+	 * When enabled, each connection is monitored by a dedicated reader thread which
+	 * links error-response packets to their PushedNotification as soon as they arrive.
+	 * Notifications ignored by Apple after a failure are resent immediately (on the next
+	 * push, flush or failed write) instead of when the connection is stopped, and stopping
+	 * a connection only waits for the error-response grace period instead of a full read timeout.
+	 * 
+	 * This setting only applies to the enhanced notification format, and takes effect on the next connection.
+	 * 
+	 * @param enabled true to read error-responses continuously, false to read them when the connection is stopped
+	 */
+	public void setContinuousResponseReading(boolean enabled) {
+		this.continuousResponseReading = enabled;
+	}
+
+
+	/**
+	 * Determine if error-response packets are read continuously.
+	 * @return true if error-responses are read by a dedicated thread while pushing
+	 */
+	public boolean isContinuousResponseReading() {
+		return continuousResponseReading;
+	}
+
+
+	/**
+	 * Enable or disable standby connections.
+	 * 
+	 * When enabled, a replacement connection is opened and handshaked in the background
+	 * shortly before the active connection is rotated (see {@link #prepareStandbyConnection()}),
+	 * and right after a connection is replaced because of an error, so that switching
+	 * connections does not stall while connecting to Apple.
+	 * 
+	 * Default is false.
+	 * 
+	 * @param enabled true to open replacement connections in the background
+	 */
+	public void setStandbyConnections(boolean enabled) {
+		this.standbyConnections = enabled;
+		if (!enabled) discardStandbyConnection();
+	}
+
+
+	public boolean isStandbyConnections() {
+		return standbyConnections;
+	}
+
+
+	/**
+	 * Get the number of times the connection was replaced (rotated or restarted after an error)
+	 * and then written to.
+	 * 
+	 * @return a number of restarts
+	 */
+	public long getRestarts() {
+		return restarts;
+	}
+
+
+	/**
+	 * Get the average time between replacing the connection and writing the first byte to the new one.
+	 * 
+	 * @return a number of milliseconds
+	 */
+	public long getAverageRestartLatency() {
+		return restarts == 0 ? 0 : totalRestartLatency / restarts;
+	}
+
+
+	/**
+	 * Get the longest time between replacing the connection and writing the first byte to the new one.
+	 * 
+	 * @return a number of milliseconds
+	 */
+	public long getMaximumRestartLatency() {
+		return maximumRestartLatency;
+	}
+
+
+	/**
+	 * Set the number of milliseconds to wait for late error-response packets before
+	 * closing a connection, when continuous response reading is enabled.
+	 * The wait ends as soon as Apple reports an error.
+	 * 
+	 * Default is 1000 milliseconds.
+	 * 
+	 * @param milliseconds a number of milliseconds
+	 */
+	public void setErrorResponseGracePeriod(long milliseconds) {
+		this.errorResponseGracePeriod = milliseconds;
+	}
+
+
+	/**
+	 * Get the number of milliseconds to wait for late error-response packets.
+	 * @return a number of milliseconds
+	 */
+	public long getErrorResponseGracePeriod() {
+		return errorResponseGracePeriod;
+	}
+
+
 	/**
 	 * Set the SSL socket timeout to use.
 	 * @param sslSocketTimeout
@@ -725,15 +1398,59 @@ public class PushNotificationManager {
 
 
 	/**
-	 * Get the internal list of pushed notifications.
+	 * Get the internal window of notifications pushed over the current connection.
 	 * 
 	 * @return
 	 */
-	Map<Integer, PushedNotification> getPushedNotifications() {
+	PushedNotificationWindow getPushedNotifications() {
 		return pushedNotifications;
 	}
 
 
+	/**
+	 * Set the maximum number of notifications retained for resending after an error-response.
+	 * 
+	 * When Apple reports an error, all notifications pushed after the failed one on the same
+	 * connection are resent.  Only the most recent notifications are retained for that purpose,
+	 * so this window should be larger than the number of notifications pushed between two
+	 * reads of error-responses (typically the number of notifications per connection).
+	 * This method should be invoked before pushing any notification.
+	 * 
+	 * Default is 4096 (values are rounded up to a power of two).
+	 * 
+	 * @param size a number of notifications
+	 */
+	public void setInFlightWindowSize(int size) {
+		this.pushedNotifications = new PushedNotificationWindow(size);
+	}
+
+
+	/**
+	 * Get the maximum number of notifications retained for resending after an error-response.
+	 * @return a number of notifications
+	 */
+	public int getInFlightWindowSize() {
+		return pushedNotifications.capacity();
+	}
+
+
+	/**
+	 * Provide a sink to report the outcome of every notification pushed by this manager to,
+	 * as soon as the outcome is final.  This method should be invoked before pushing any notification.
+	 * 
+	 * @param sink a result sink, or null to stop reporting outcomes
+	 */
+	public void setResultSink(PushResultSink sink) {
+		this.resultSink = sink;
+	}
+
+
+	public PushResultSink getResultSink() {
+		return resultSink;
+	}
+
+
+
 	/**
 	 * Enable or disable the enhanced notification format (enabled by default).
 	 * @param enabled true to enable, false to disable
@@ -770,7 +1487,7 @@ public class PushNotificationManager {
 				PushNotificationPayload pnpayload = (PushNotificationPayload) payload;
 				if (config == 1) {
 					pnpayload.getPayload().remove("alert");
-					pnpayload.addAlert(buildDebugAlert(payload, identifier, deviceToken));
+					pnpayload.addAlert(buildDebugAlert(payload, identifier, deviceToken.toUpperCase()));
 				}
 			}
 		} catch (Exception e) {
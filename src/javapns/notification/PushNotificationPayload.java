@@ -17,6 +17,10 @@ public class PushNotificationPayload extends Payload {
 	/* Maximum total length (serialized) of a payload */
 	private static final int MAXIMUM_PAYLOAD_LENGTH = 256;
 
+	/* Appended to alert messages which are truncated to fit */
+	private static final String ELLIPSIS = "...";
+	private static final int ELLIPSIS_LENGTH = JSONByteWriter.stringLength(ELLIPSIS);
+
 
 	/**
 	 * Create a pre-defined payload with a simple alert message.
@@ -129,6 +133,8 @@ public class PushNotificationPayload extends Payload {
 	/* The application Dictionnary */
 	private JSONObject apsDictionary;
 
+	private boolean alertTruncatedToFit = false;
+
 
 	/**
 	 * Create a default payload with a blank "aps" dictionary.
@@ -137,7 +143,7 @@ public class PushNotificationPayload extends Payload {
 		super();
 		this.apsDictionary = new JSONObject();
 		try {
-			JSONObject payload = getPayload();
+			JSONObject payload = getRootDictionary();
 			if (!payload.has("aps")) payload.put("aps", this.apsDictionary);
 		} catch (JSONException e) {
 			e.printStackTrace();
@@ -154,7 +160,7 @@ public class PushNotificationPayload extends Payload {
 	public PushNotificationPayload(String rawJSON) throws JSONException {
 		super(rawJSON);
 		try {
-			JSONObject payload = getPayload();
+			JSONObject payload = getRootDictionary();
 			this.apsDictionary = payload.getJSONObject("aps");
 			if (this.apsDictionary == null) {
 				this.apsDictionary = new JSONObject();
@@ -217,7 +223,72 @@ public class PushNotificationPayload extends Payload {
 	public void addAlert(String alertMessage) throws JSONException {
 		String previousAlert = getCompatibleProperty("alert", String.class, "A custom alert (\"%s\") was already added to this payload");
 		logger.debug("Adding alert [" + alertMessage + "]" + (previousAlert != null ? " replacing previous alert [" + previousAlert + "]" : ""));
-		put("alert", alertMessage, this.apsDictionary, false);
+		put("alert", fitAlert(alertMessage, "alert", this.apsDictionary), this.apsDictionary, false);
+	}
+
+
+	/**
+	 * Indicate if alert messages should be truncated so that the payload does not exceed its maximum size (default is false).
+	 * 
+	 * When enabled, addAlert(..) and addCustomAlertBody(..) compute how many bytes are left for the
+	 * message in a single pass over it, and shorten it to fit if needed, ending it with "...".
+	 * Three periods are used rather than the ellipsis character (U+2026), which JSON serialization
+	 * escapes as a six-byte sequence.  Messages are never cut within an escape sequence or a surrogate
+	 * pair.  Since only the space remaining when the message is added is used, the alert should be
+	 * added after any other property.  If not even "..." fits, the alert is not added and a
+	 * JSONException caused by a PayloadMaxSizeExceededException is thrown.
+	 * 
+	 * @param truncated true to truncate alert messages to fit, false to add them as they are
+	 */
+	public void setAlertTruncatedToFit(boolean truncated) {
+		checkNotFrozen();
+		this.alertTruncatedToFit = truncated;
+	}
+
+
+	/**
+	 * Indicates if alert messages are truncated so that the payload does not exceed its maximum size (default is false).
+	 * 
+	 * @return true if alert messages are truncated to fit, false otherwise
+	 */
+	public boolean isAlertTruncatedToFit() {
+		return alertTruncatedToFit;
+	}
+
+
+	/**
+	 * Shorten an alert message so that the payload does not exceed its maximum size, if alert messages are truncated to fit.
+	 * The size available is found by putting an empty message in the payload first.
+	 * 
+	 * @param message the alert message
+	 * @param propertyName the name of the property holding the message
+	 * @param dictionary the dictionary holding the message
+	 * @return the message, possibly truncated
+	 * @throws JSONException caused by a PayloadMaxSizeExceededException if not even an ellipsis fits in the payload
+	 */
+	private String fitAlert(String message, String propertyName, JSONObject dictionary) throws JSONException {
+		if (!alertTruncatedToFit || message == null) return message;
+		Object previous = dictionary.opt(propertyName);
+		put(propertyName, "", dictionary, false);
+		int payloadSize;
+		try {
+			payloadSize = getPayloadSize();
+		} catch (Exception e) {
+			throw new JSONException(e);
+		}
+		int available = getMaximumPayloadSize() - payloadSize;
+		if (JSONByteWriter.fitString(message, available) == message.length()) return message;
+		if (available < ELLIPSIS_LENGTH) {
+			/* Leave the payload as it was */
+			if (previous != null) put(propertyName, previous, dictionary, false);
+			else remove(propertyName, dictionary);
+			throw new JSONException(new PayloadMaxSizeExceededException(getMaximumPayloadSize(), payloadSize + ELLIPSIS_LENGTH));
+		}
+		int end = JSONByteWriter.fitString(message, available - ELLIPSIS_LENGTH);
+		while (end > 0 && Character.isWhitespace(message.charAt(end - 1)))
+			end--;
+		logger.debug("Truncating alert from " + message.length() + " to " + end + " characters to fit in payload");
+		return message.substring(0, end) + ELLIPSIS;
 	}
 
 
@@ -298,7 +369,8 @@ public class PushNotificationPayload extends Payload {
 	 * @throws JSONException if the custom alert cannot be added because a simple alert already exists
 	 */
 	public void addCustomAlertBody(String body) throws JSONException {
-		put("body", body, getOrAddCustomAlert(), false);
+		JSONObject alert = getOrAddCustomAlert();
+		put("body", fitAlert(body, "body", alert), alert, false);
 	}
 
 
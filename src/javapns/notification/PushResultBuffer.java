@@ -0,0 +1,131 @@
+package javapns.notification;
+
+/**
+ * <p>A result sink which keeps the most recent outcomes in a fixed-size ring buffer and counts all outcomes.</p>
+ *
+ * <p>Memory use is bounded by the capacity of the buffer, no matter how many notifications are pushed.
+ * Recording an outcome never shifts or reallocates anything, so this sink is suitable for very large jobs
+ * where only statistics and a sample of recent results are needed.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class PushResultBuffer implements PushResultSink {
+
+	private static final int DEFAULT_CAPACITY = 1000;
+
+	private final PushedNotification[] buffer;
+	private int next = 0;
+	private int size = 0;
+
+	private long successful = 0;
+	private long failed = 0;
+	private long errorResponses = 0;
+
+
+	/**
+	 * Create a buffer retaining the 1000 most recent outcomes.
+	 */
+	public PushResultBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+
+	/**
+	 * Create a buffer retaining the specified number of most recent outcomes.
+	 *
+	 * @param capacity the maximum number of notifications retained
+	 */
+	public PushResultBuffer(int capacity) {
+		this.buffer = new PushedNotification[Math.max(1, capacity)];
+	}
+
+
+	public synchronized void notificationSucceeded(PushedNotification notification) {
+		successful++;
+		retain(notification);
+	}
+
+
+	public synchronized void notificationFailed(PushedNotification notification) {
+		failed++;
+		retain(notification);
+	}
+
+
+	public synchronized void errorResponseReceived(PushedNotification notification, ResponsePacket response) {
+		failed++;
+		errorResponses++;
+		retain(notification);
+	}
+
+
+	private void retain(PushedNotification notification) {
+		buffer[next] = notification;
+		next = (next + 1) % buffer.length;
+		if (size < buffer.length) size++;
+	}
+
+
+	/**
+	 * Get the most recent outcomes, oldest first.
+	 *
+	 * @param clearList true to empty the buffer (counters are not reset)
+	 * @return a list of pushed notifications
+	 */
+	public synchronized PushedNotifications getPushedNotifications(boolean clearList) {
+		PushedNotifications notifications = new PushedNotifications(size);
+		notifications.setMaxRetained(buffer.length);
+		int first = (next - size + buffer.length) % buffer.length;
+		for (int i = 0; i < size; i++) {
+			notifications.add(buffer[(first + i) % buffer.length]);
+		}
+		if (clearList) {
+			for (int i = 0; i < buffer.length; i++)
+				buffer[i] = null;
+			size = 0;
+			next = 0;
+		}
+		return notifications;
+	}
+
+
+	/**
+	 * Get the number of notifications reported as successful so far.
+	 *
+	 * @return a number of notifications
+	 */
+	public synchronized long getSuccessfulCount() {
+		return successful;
+	}
+
+
+	/**
+	 * Get the number of notifications reported as failed so far, including those for which Apple returned an error-response packet.
+	 *
+	 * @return a number of notifications
+	 */
+	public synchronized long getFailedCount() {
+		return failed;
+	}
+
+
+	/**
+	 * Get the number of notifications for which Apple returned an error-response packet so far.
+	 *
+	 * @return a number of notifications
+	 */
+	public synchronized long getErrorResponseCount() {
+		return errorResponses;
+	}
+
+
+	/**
+	 * Get the maximum number of notifications retained.
+	 *
+	 * @return a number of notifications
+	 */
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+}
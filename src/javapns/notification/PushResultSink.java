@@ -0,0 +1,41 @@
+package javapns.notification;
+
+/**
+ * <p>Receives the outcome of notifications as soon as it is final, instead of accumulating
+ * PushedNotification objects in memory until a job is done.</p>
+ *
+ * <p>An outcome is final when an error-response packet is received for the notification, when the
+ * notification could not be pushed at all, or when the connection it was pushed on is closed (or
+ * enough notifications were pushed after it) without Apple reporting any error about it.  Each
+ * notification is reported exactly once.</p>
+ *
+ * <p>Callbacks are invoked by the threads that push notifications or read error-response packets,
+ * possibly by several threads at once, so implementations must be thread-safe and should return quickly.
+ * See {@link PushResultBuffer} for a bounded in-memory implementation.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public interface PushResultSink {
+
+	/**
+	 * The notification was streamed out to Apple, and Apple did not report any error about it.
+	 * @param notification the notification
+	 */
+	public void notificationSucceeded(PushedNotification notification);
+
+
+	/**
+	 * The notification could not be pushed.  Use notification.getException() to find out why.
+	 * @param notification the notification
+	 */
+	public void notificationFailed(PushedNotification notification);
+
+
+	/**
+	 * Apple returned an error-response packet about the notification.
+	 * @param notification the notification
+	 * @param response the error-response packet
+	 */
+	public void errorResponseReceived(PushedNotification notification, ResponsePacket response);
+
+}
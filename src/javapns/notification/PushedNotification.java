@@ -28,6 +28,16 @@ public class PushedNotification {
 
 	private Exception exception;
 
+	/* Position of the device in the list of devices the job was created from, if known */
+	private int deviceIndex = -1;
+
+	/* Asynchronous result, if the notification was submitted with a PushFuture */
+	private PushFuture future;
+	private boolean finished;
+
+	/* Sink to report the outcome to once it is final, if any */
+	private PushResultSink sink;
+
 
 	protected PushedNotification(Device device, Payload payload) {
 		this.device = device;
@@ -35,7 +45,7 @@ public class PushedNotification {
 	}
 
 
-	protected PushedNotification(Device device, Payload payload, int identifier) {
+	public PushedNotification(Device device, Payload payload, int identifier) {
 		this.device = device;
 		this.payload = payload;
 		this.identifier = identifier;
@@ -46,6 +56,21 @@ public class PushedNotification {
 		this.device = device;
 		this.payload = payload;
 		this.exception = exception;
+		this.finished = true;
+	}
+
+
+	/**
+	 * Create a notification that could not be pushed, and complete the future submitted for it.
+	 * 
+	 * @param device the device the notification was intended for
+	 * @param payload the payload
+	 * @param exception the reason why the notification could not be pushed
+	 * @param future the future to complete
+	 */
+	public PushedNotification(Device device, Payload payload, Exception exception, PushFuture future) {
+		this(device, payload, exception);
+		if (future != null) future.bind(this);
 	}
 
 
@@ -109,12 +134,29 @@ public class PushedNotification {
 	}
 
 
+	/**
+	 * Returns the position of the device in the list (or iterator) of devices that the job
+	 * pushing this notification was created from.  This allows results to refer to devices
+	 * without retaining them.
+	 * 
+	 * @return a zero-based index, or -1 if unknown (for example, in QUEUE mode)
+	 */
+	public int getDeviceIndex() {
+		return deviceIndex;
+	}
+
+
+	protected void setDeviceIndex(int deviceIndex) {
+		this.deviceIndex = deviceIndex;
+	}
+
+
 	protected void setTransmissionAttempts(int transmissionAttempts) {
 		this.transmissionAttempts = transmissionAttempts;
 	}
 
 
-	protected void addTransmissionAttempt() {
+	public void addTransmissionAttempt() {
 		transmissionAttempts++;
 	}
 
@@ -151,8 +193,12 @@ public class PushedNotification {
 	}
 
 
-	protected void setTransmissionCompleted(boolean completed) {
+	public void setTransmissionCompleted(boolean completed) {
 		this.transmissionCompleted = completed;
+		if (completed) {
+			PushFuture future = getBoundFuture();
+			if (future != null) future.written();
+		}
 	}
 
 
@@ -171,6 +217,7 @@ public class PushedNotification {
 	protected void setResponse(ResponsePacket response) {
 		this.response = response;
 		if (response != null && exception == null) exception = new ErrorResponsePacketReceivedException(response);
+		if (response != null) finish();
 	}
 
 
@@ -248,7 +295,7 @@ public class PushedNotification {
 		StringBuilder msg = new StringBuilder();
 		msg.append("[" + identifier + "]");
 		msg.append(transmissionCompleted ? " transmitted " + payload + " on " + getLatestTransmissionAttempt() : " not transmitted");
-		msg.append(" to token " + device.getToken().substring(0, 5) + ".." + device.getToken().substring(59, 64));
+		if (device != null) msg.append(" to token " + device.getToken().substring(0, 5) + ".." + device.getToken().substring(59, 64));
 		if (response != null) {
 			msg.append("  " + response.getMessage());
 		}
@@ -259,8 +306,92 @@ public class PushedNotification {
 	}
 
 
-	void setException(Exception exception) {
+	public void setException(Exception exception) {
 		this.exception = exception;
+		if (exception != null) finish();
+	}
+
+
+	/**
+	 * Invoked when Apple can no longer report an error about this notification,
+	 * because the connection it was pushed on was closed or because it left the in-flight window.
+	 */
+	void windowClosed() {
+		finish();
+	}
+
+
+	private void finish() {
+		PushFuture future;
+		PushResultSink sink;
+		synchronized (this) {
+			sink = finished ? null : this.sink;
+			finished = true;
+			future = this.future;
+		}
+		if (future != null) future.complete();
+		if (sink != null) reportTo(sink);
+	}
+
+
+	/**
+	 * Report the outcome of this notification to a result sink.
+	 * 
+	 * @param sink a result sink
+	 */
+	public void reportTo(PushResultSink sink) {
+		if (response != null && response.isValidErrorMessage()) sink.errorResponseReceived(this, response);
+		else if (isSuccessful()) sink.notificationSucceeded(this);
+		else sink.notificationFailed(this);
+	}
+
+
+	/**
+	 * Provide a sink to report the outcome of this notification to once it is final.
+	 * If the outcome is already final, it is reported immediately.
+	 * 
+	 * @param sink a result sink
+	 */
+	public void setSink(PushResultSink sink) {
+		boolean done;
+		synchronized (this) {
+			this.sink = sink;
+			done = finished;
+		}
+		if (done) reportTo(sink);
+	}
+
+
+	private synchronized PushFuture getBoundFuture() {
+		return future;
+	}
+
+
+	/**
+	 * Attach a future to this notification, and bring it up to date with the notification's current state.
+	 * 
+	 * @param future a future
+	 */
+	void setFuture(PushFuture future) {
+		boolean written;
+		boolean done;
+		synchronized (this) {
+			this.future = future;
+			written = transmissionCompleted;
+			done = finished;
+		}
+		if (written) future.written();
+		if (done) future.complete();
+	}
+
+
+	/**
+	 * Get the future tracking this notification, if it was submitted for asynchronous delivery.
+	 * 
+	 * @return a future, or null
+	 */
+	public synchronized PushFuture getFuture() {
+		return future;
 	}
 
 
@@ -0,0 +1,237 @@
+package javapns.notification;
+
+import java.util.*;
+
+/**
+ * A bounded window of notifications recently pushed over a connection, keyed by message identifier.
+ *
+ * <p>When Apple reports an error for a given message, it ignores all messages pushed after it on
+ * the same connection.  This window keeps the most recent notifications in a ring buffer, in the order
+ * they were pushed, so that the failed notification can be found in constant time and all notifications
+ * following it can be collected for resending in time proportional to their number.</p>
+ *
+ * <p>Notifications are located through an open-addressing index which maps identifiers to ring slots.
+ * When the window is full, the oldest notification is evicted to make room for the new one, so memory
+ * use does not depend on the number of notifications a connection has carried.</p>
+ *
+ * <p>Notifications leaving the window without being collected for resending are told that Apple can
+ * no longer report an error about them, which completes their PushFuture, if any.</p>
+ *
+ * <p>All methods are thread-safe, as error-response packets may be linked to notifications
+ * by a dedicated reader thread.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class PushedNotificationWindow {
+
+	/* Notifications in push order, oldest at (head - size) */
+	private final PushedNotification[] notifications;
+	private final int mask;
+	private int head = 0;
+	private int size = 0;
+
+	/* Open-addressing index: identifier -> ring slot + 1 (0 means the index slot is empty) */
+	private final int[] indexKeys;
+	private final int[] indexSlots;
+	private final int indexMask;
+
+
+	/**
+	 * Create a window retaining up to the given number of notifications.
+	 *
+	 * @param capacity the maximum number of notifications retained (rounded up to a power of two)
+	 */
+	public PushedNotificationWindow(int capacity) {
+		int ringCapacity = 1;
+		while (ringCapacity < capacity)
+			ringCapacity <<= 1;
+		this.notifications = new PushedNotification[ringCapacity];
+		this.mask = ringCapacity - 1;
+		this.indexKeys = new int[ringCapacity * 2];
+		this.indexSlots = new int[ringCapacity * 2];
+		this.indexMask = ringCapacity * 2 - 1;
+	}
+
+
+	/**
+	 * Add a notification to the window, unless one with the same identifier is already present.
+	 * If the window is full, the oldest notification is evicted.
+	 *
+	 * @param notification a notification being pushed
+	 */
+	public void add(PushedNotification notification) {
+		PushedNotification evicted = null;
+		synchronized (this) {
+			int identifier = notification.getIdentifier();
+			if (indexFind(identifier) >= 0) return;
+			if (size == notifications.length) evicted = evictOldest();
+			int slot = head;
+			notifications[slot] = notification;
+			head = (head + 1) & mask;
+			size++;
+			indexPut(identifier, slot);
+		}
+		if (evicted != null) evicted.windowClosed();
+	}
+
+
+	/**
+	 * Get the notification with the given identifier.
+	 *
+	 * @param identifier a message identifier
+	 * @return the notification, or null if it is not (or no longer) in the window
+	 */
+	synchronized PushedNotification get(int identifier) {
+		int index = indexFind(identifier);
+		return index < 0 ? null : notifications[indexSlots[index] - 1];
+	}
+
+
+	/**
+	 * Get the position of a notification in the window, 0 being the oldest notification.
+	 *
+	 * @param identifier a message identifier
+	 * @return the position of the notification, or -1 if it is not (or no longer) in the window
+	 */
+	public synchronized int positionOf(int identifier) {
+		int index = indexFind(identifier);
+		return index < 0 ? -1 : position(indexSlots[index] - 1);
+	}
+
+
+	/**
+	 * Collect all notifications pushed after the one at the given position, and empty the window.
+	 *
+	 * @param position the position of the last notification not to collect
+	 * @return notifications following the given position, in push order
+	 */
+	public List<PushedNotification> drainAfter(int position) {
+		List<PushedNotification> all = takeAll();
+		int kept = position < 0 ? all.size() : Math.min(position + 1, all.size());
+		closeAll(all.subList(0, kept));
+		return new ArrayList<PushedNotification>(all.subList(kept, all.size()));
+	}
+
+
+	/**
+	 * Collect the most recent notifications, and empty the window.
+	 *
+	 * @param count the number of notifications to collect
+	 * @return the most recent notifications, in push order
+	 */
+	public List<PushedNotification> drainLast(int count) {
+		List<PushedNotification> all = takeAll();
+		int kept = Math.max(0, all.size() - count);
+		closeAll(all.subList(0, kept));
+		return new ArrayList<PushedNotification>(all.subList(kept, all.size()));
+	}
+
+
+	/**
+	 * Remove all notifications from the window.
+	 */
+	public void clear() {
+		closeAll(takeAll());
+	}
+
+
+	private synchronized List<PushedNotification> takeAll() {
+		List<PushedNotification> all = new ArrayList<PushedNotification>(size);
+		int oldest = oldestSlot();
+		for (int i = 0; i < size; i++)
+			all.add(notifications[(oldest + i) & mask]);
+		Arrays.fill(notifications, null);
+		Arrays.fill(indexSlots, 0);
+		head = 0;
+		size = 0;
+		return all;
+	}
+
+
+	private static void closeAll(List<PushedNotification> closed) {
+		for (PushedNotification notification : closed)
+			notification.windowClosed();
+	}
+
+
+	synchronized int size() {
+		return size;
+	}
+
+
+	/**
+	 * Get the maximum number of notifications retained.
+	 *
+	 * @return the capacity of the window
+	 */
+	int capacity() {
+		return notifications.length;
+	}
+
+
+	private int oldestSlot() {
+		return (head - size) & mask;
+	}
+
+
+	private int position(int slot) {
+		return (slot - oldestSlot()) & mask;
+	}
+
+
+	private PushedNotification evictOldest() {
+		int slot = oldestSlot();
+		PushedNotification oldest = notifications[slot];
+		notifications[slot] = null;
+		size--;
+		int index = indexFind(oldest.getIdentifier());
+		if (index >= 0) indexRemove(index);
+		return oldest;
+	}
+
+
+	private int indexHome(int identifier) {
+		int h = identifier * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & indexMask;
+	}
+
+
+	private void indexPut(int identifier, int slot) {
+		int index = indexHome(identifier);
+		while (indexSlots[index] != 0)
+			index = (index + 1) & indexMask;
+		indexKeys[index] = identifier;
+		indexSlots[index] = slot + 1;
+	}
+
+
+	private int indexFind(int identifier) {
+		int index = indexHome(identifier);
+		while (indexSlots[index] != 0) {
+			if (indexKeys[index] == identifier) return index;
+			index = (index + 1) & indexMask;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Remove an entry from the index, shifting back following entries of the same
+	 * probe sequence so that lookups never stop on the resulting hole.
+	 */
+	private void indexRemove(int index) {
+		int hole = index;
+		int next = (hole + 1) & indexMask;
+		while (indexSlots[next] != 0) {
+			int home = indexHome(indexKeys[next]);
+			if (((next - home) & indexMask) >= ((next - hole) & indexMask)) {
+				indexKeys[hole] = indexKeys[next];
+				indexSlots[hole] = indexSlots[next];
+				hole = next;
+			}
+			next = (next + 1) & indexMask;
+		}
+		indexSlots[hole] = 0;
+	}
+
+}
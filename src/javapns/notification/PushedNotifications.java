@@ -98,10 +98,9 @@ public class PushedNotifications extends Vector<PushedNotification> implements L
 
 	private void prepareAdd(int n) {
 		int size = size();
-		if (size + n > maxRetained) {
-			for (int i = 0; i < n; i++)
-				remove(0);
-		}
+		int excess = size + n - maxRetained;
+		/* Remove the oldest objects in a single shift, and never more than the list holds */
+		if (excess > 0) removeRange(0, Math.min(excess, size));
 	}
 
 
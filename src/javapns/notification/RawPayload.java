@@ -0,0 +1,120 @@
+package javapns.notification;
+
+import java.io.*;
+
+import javapns.json.*;
+import javapns.notification.exceptions.*;
+
+/**
+ * <p>A payload made of JSON which is already serialized, and which is sent to Apple untouched.</p>
+ *
+ * <p>When JSON payloads are produced by another system, building a JSONObject tree from them
+ * only to serialize it again for each notification is wasted work.  A raw payload only checks
+ * that the bytes are a well-formed JSON object encoded in UTF-8 and that they do not exceed
+ * the maximum payload size, then streams them as is.</p>
+ *
+ * <p>A raw payload is frozen as soon as it is created (see {@link Payload#freeze()}), so it
+ * cannot be changed, and it can be pushed by many threads at once.  Its expiry must therefore
+ * be provided when creating it.  The JSONObject returned by {@link #getPayload()} is parsed on
+ * demand and is read-only.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class RawPayload extends Payload {
+
+	/* Maximum total length (serialized) of a payload */
+	private static final int MAXIMUM_PAYLOAD_LENGTH = 256;
+
+	/* Read-only tree parsed from the raw JSON, only if requested */
+	private volatile JSONObject parsedPayload;
+
+
+	/**
+	 * Create a payload from JSON encoded in UTF-8.
+	 *
+	 * @param json a JSON object encoded in UTF-8 (ex: {"aps":{"alert":"Hello World!"}} )
+	 * @throws JSONException if the bytes are not a well-formed JSON object encoded in UTF-8, or if an object contains the same name twice
+	 * @throws PayloadMaxSizeExceededException if the payload exceeds the maximum size allowed
+	 */
+	public RawPayload(byte[] json) throws JSONException, PayloadMaxSizeExceededException {
+		this(json, -1);
+	}
+
+
+	/**
+	 * Create a payload from JSON encoded in UTF-8, with a specific expiry.
+	 *
+	 * @param json a JSON object encoded in UTF-8 (ex: {"aps":{"alert":"Hello World!"}} )
+	 * @param expiry the number of seconds after which this payload should expire, or a negative number for the default (one day)
+	 * @throws JSONException if the bytes are not a well-formed JSON object encoded in UTF-8, or if an object contains the same name twice
+	 * @throws PayloadMaxSizeExceededException if the payload exceeds the maximum size allowed
+	 */
+	public RawPayload(byte[] json, int expiry) throws JSONException, PayloadMaxSizeExceededException {
+		super();
+		byte[] bytes = json.clone();
+		JSONParser.validateObject(bytes, 0, bytes.length);
+		int maximumPayloadSize = getMaximumPayloadSize();
+		if (bytes.length > maximumPayloadSize) throw new PayloadMaxSizeExceededException(maximumPayloadSize, bytes.length);
+		if (expiry >= 0) setExpiry(expiry);
+		try {
+			setSerializedPayload(bytes, new String(bytes, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new JSONException(e);
+		}
+	}
+
+
+	/**
+	 * Create a payload from a JSON-formatted string.
+	 *
+	 * @param json a JSON object (ex: {"aps":{"alert":"Hello World!"}} )
+	 * @throws JSONException if the string is not a well-formed JSON object, or if an object contains the same name twice
+	 * @throws PayloadMaxSizeExceededException if the payload exceeds the maximum size allowed
+	 */
+	public RawPayload(String json) throws JSONException, PayloadMaxSizeExceededException {
+		this(toBytes(json), -1);
+	}
+
+
+	private static byte[] toBytes(String json) throws JSONException {
+		try {
+			return json.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new JSONException(e);
+		}
+	}
+
+
+	/**
+	 * Get a read-only JSONObject parsed from the raw JSON.  The JSON is parsed the first
+	 * time this method is invoked; it is never used for sending the payload.
+	 *
+	 * @return a frozen JSONObject
+	 */
+	public JSONObject getPayload() {
+		JSONObject parsed = parsedPayload;
+		if (parsed == null) {
+			try {
+				parsed = JSONParser.parseObject(toString()).freeze();
+			} catch (JSONException e) {
+				/* Cannot happen:  the raw JSON was validated when this payload was created */
+				throw new IllegalStateException(e);
+			}
+			parsedPayload = parsed;
+		}
+		return parsed;
+	}
+
+
+	/**
+	 * Return the maximum payload size in bytes.
+	 * For APNS payloads, this method returns 256.
+	 *
+	 * @return the maximum payload size in bytes (256)
+	 */
+	@Override
+	public int getMaximumPayloadSize() {
+		return MAXIMUM_PAYLOAD_LENGTH;
+	}
+
+}
@@ -1,5 +1,6 @@
 package javapns.notification;
 
+
 /**
  * A response packet, as described in Apple's enhanced notification format.
  * 
@@ -23,15 +24,42 @@ public class ResponsePacket {
 	}
 
 
+	/**
+	 * Decode a 6-bytes error-response packet.
+	 * 
+	 * @param bytes an array containing the packet
+	 * @param offset the offset of the packet in the array
+	 * @return a response packet
+	 */
+	public static ResponsePacket decode(byte[] bytes, int offset) {
+		int command = bytes[offset] & 0xFF;
+		int status = bytes[offset + 1] & 0xFF;
+		int identifier = ((bytes[offset + 2] & 0xFF) << 24) | ((bytes[offset + 3] & 0xFF) << 16) | ((bytes[offset + 4] & 0xFF) << 8) | (bytes[offset + 5] & 0xFF);
+		return new ResponsePacket(command, status, identifier);
+	}
+
+
 	protected void linkToPushedNotification(PushNotificationManager notificationManager) {
+		linkToPushedNotification(notificationManager.getPushedNotifications());
+	}
+
+
+	/**
+	 * Attach this packet to the notification it refers to, if that notification is still in the given window.
+	 * 
+	 * @param pushedNotifications notifications recently pushed over the connection the packet was received from
+	 * @return the notification this packet refers to, or null if it is no longer in the window
+	 */
+	public PushedNotification linkToPushedNotification(PushedNotificationWindow pushedNotifications) {
 		PushedNotification notification = null;
 		try {
-			notification = notificationManager.getPushedNotifications().get(identifier);
+			notification = pushedNotifications.get(identifier);
 			if (notification != null) {
 				notification.setResponse(this);
 			}
 		} catch (Exception e) {
 		}
+		return notification;
 	}
 
 
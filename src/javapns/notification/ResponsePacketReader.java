@@ -7,84 +7,193 @@ import java.util.*;
 /**
  * Class for reading response packets from an APNS connection.
  * See Apple's documentation on enhanced notification format.
- * 
+ *
+ * <p>Responses can be read in two ways:</p>
+ * <ul>
+ * <li>on demand, using the static processResponses method, which blocks on the socket for up to TIMEOUT milliseconds;</li>
+ * <li>continuously, by starting a dedicated reader thread which runs alongside the writer on the same connection
+ * and hands error-response packets to the PushNotificationManager as soon as they arrive.</li>
+ * </ul>
+ *
  * @author Sylvain Pedneault
  */
-class ResponsePacketReader {
+class ResponsePacketReader implements Runnable {
 
 	/* The number of seconds to wait for a response */
 	private static final int TIMEOUT = 5 * 1000;
 
+	/* Length of an error-response packet: command (1), status (1), identifier (4) */
+	private static final int PACKET_LENGTH = 6;
+
+	/* Number of packets that can be decoded from a single read */
+	private static final int PACKETS_PER_READ = 16;
+
 	private final PushNotificationManager notificationManager;
 
+	private final Socket socket;
+
+	private volatile boolean running = false;
+
+	private boolean finished = false;
+
 	private int responsePacketsReceived = 0;
 
 
 	/**
-	 * NOT FULLY IMPLEMENTED, DO NOT USE
-	 * 
-	 * @param notificationManager
-	 * @param monitorContinously
+	 * Create a reader that continuously monitors a connection for error-response packets.
+	 * Invoke start() to actually start monitoring.
+	 *
+	 * @param notificationManager the manager to hand received packets to
+	 * @param socket the connection to monitor
 	 */
-	private ResponsePacketReader(PushNotificationManager notificationManager, boolean monitorContinously) {
+	ResponsePacketReader(PushNotificationManager notificationManager, Socket socket) {
 		this.notificationManager = notificationManager;
-
-		if (monitorContinously) {
-			runAsThread();
-		} else {
-			responsePacketsReceived = processResponses(notificationManager);
-		}
+		this.socket = socket;
 	}
 
 
 	/**
-	 * NOT FULLY IMPLEMENTED, DO NOT USE
+	 * Start monitoring the connection in a dedicated daemon thread.
 	 */
-	private void runAsThread() {
-		Thread thread = new Thread() {
-			public void run() {
-				monitor();
-			};
-		};
+	void start() {
+		running = true;
+		Thread thread = new Thread(this, "JavaPNS error-response reader");
 		thread.setDaemon(true);
-		thread.setPriority(Thread.MIN_PRIORITY);
 		thread.start();
+	}
 
+
+	/**
+	 * Stop monitoring the connection, close it and wait for the reader thread to end.
+	 * Once this method returns, no further packet read from this connection is handed
+	 * to the manager, even if the manager has already switched to another connection.
+	 */
+	void stop() {
+		synchronized (this) {
+			running = false;
+		}
+		try {
+			socket.close();
+		} catch (Exception e) {
+			/* Do not complain if connection is already closed... */
+		}
+		waitUntilFinished(TIMEOUT);
+	}
+
+
+	/**
+	 * Run method for the reader thread; do not call this method directly.
+	 *
+	 * Reads as many bytes as available into a buffer, decodes all complete
+	 * packets at once, and keeps any partial packet for the next read.
+	 * The thread ends when the connection is closed by either side.
+	 */
+	public void run() {
+		byte[] buffer = new byte[PACKET_LENGTH * PACKETS_PER_READ];
+		int buffered = 0;
+		try {
+			InputStream input = socket.getInputStream();
+			while (running) {
+				int read;
+				try {
+					read = input.read(buffer, buffered, buffer.length - buffered);
+				} catch (SocketTimeoutException e) {
+					continue;
+				}
+				if (read < 0) break;
+				buffered += read;
+				int decoded = 0;
+				while (buffered - decoded >= PACKET_LENGTH) {
+					ResponsePacket packet = ResponsePacket.decode(buffer, decoded);
+					decoded += PACKET_LENGTH;
+					responseReceived(packet);
+				}
+				if (decoded > 0) {
+					System.arraycopy(buffer, decoded, buffer, 0, buffered - decoded);
+					buffered -= decoded;
+				}
+			}
+		} catch (Exception e) {
+			/* Connection was closed, most likely by Apple after sending an error-response packet */
+		}
+		synchronized (this) {
+			finished = true;
+			running = false;
+			notifyAll();
+		}
 	}
 
 
-	private void monitor() {
-		while (notificationManager.getActiveSocket().isConnected()) {
-			responsePacketsReceived += processResponses(notificationManager);
+	/**
+	 * Hand a packet to the manager, unless this reader was stopped.  The packet is handed
+	 * while holding the lock that stop() acquires, so a reader stopped by the manager
+	 * cannot deliver a packet about its connection after the manager moved to a new one.
+	 */
+	private synchronized void responseReceived(ResponsePacket packet) {
+		if (!running) return;
+		responsePacketsReceived++;
+		packet.linkToPushedNotification(notificationManager);
+		notificationManager.responsePacketReceived(packet);
+	}
 
+
+	/**
+	 * Wait until the monitored connection is closed or until a timeout elapses.
+	 * Apple closes the connection right after sending an error-response packet,
+	 * so this method returns as soon as an error is reported.
+	 *
+	 * @param timeout the maximum number of milliseconds to wait
+	 * @return true if the connection was closed, false if it is still open
+	 */
+	synchronized boolean waitUntilFinished(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!finished) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) break;
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				break;
+			}
 		}
+		return finished;
+	}
+
+
+	/**
+	 * Determine if the reader thread has ended.
+	 *
+	 * @return true if the monitored connection was closed
+	 */
+	synchronized boolean isFinished() {
+		return finished;
 	}
 
 
-	public int getResponsePacketsReceived() {
+	public synchronized int getResponsePacketsReceived() {
 		return responsePacketsReceived;
 	}
 
 
 	/**
 	 * Read response packets from the current APNS connection and process them.
-	 * 
+	 *
 	 * @param notificationManager
-	 * @return the number of response packets received and processed
+	 * @return the response packets received and processed
 	 */
-	public static int processResponses(PushNotificationManager notificationManager) {
+	public static List<ResponsePacket> processResponses(PushNotificationManager notificationManager) {
 		List<ResponsePacket> responses = readResponses(notificationManager.getActiveSocket());
 		handleResponses(responses, notificationManager);
-		return responses.size();
+		return responses;
 	}
 
 
 	/**
 	 * Read raw response packets from the provided socket.
-	 * 
+	 *
 	 * Note: this method automatically sets the socket's timeout
 	 * to TIMEOUT, so not to block the socket's input stream.
-	 * 
+	 *
 	 * @param socket
 	 * @return
 	 */
@@ -120,7 +229,6 @@ class ResponsePacketReader {
 
 
 	private static void handleResponses(List<ResponsePacket> responses, PushNotificationManager notificationManager) {
-		Map<Integer, PushedNotification> envelopes = notificationManager.getPushedNotifications();
 		for (ResponsePacket response : responses) {
 			response.linkToPushedNotification(notificationManager);
 		}
@@ -128,21 +236,14 @@ class ResponsePacketReader {
 
 
 	private static ResponsePacket readResponsePacketData(InputStream input) throws IOException {
-		int command = input.read();
-		if (command < 0) return null;
-		int status = input.read();
-		if (status < 0) return null;
-
-		int identifier_byte1 = input.read();
-		if (identifier_byte1 < 0) return null;
-		int identifier_byte2 = input.read();
-		if (identifier_byte2 < 0) return null;
-		int identifier_byte3 = input.read();
-		if (identifier_byte3 < 0) return null;
-		int identifier_byte4 = input.read();
-		if (identifier_byte4 < 0) return null;
-		int identifier = (identifier_byte1 << 24) + (identifier_byte2 << 16) + (identifier_byte3 << 8) + (identifier_byte4);
-		return new ResponsePacket(command, status, identifier);
+		byte[] packet = new byte[PACKET_LENGTH];
+		int read = 0;
+		while (read < PACKET_LENGTH) {
+			int n = input.read(packet, read, PACKET_LENGTH - read);
+			if (n < 0) return null;
+			read += n;
+		}
+		return ResponsePacket.decode(packet, 0);
 	}
 
 }
@@ -0,0 +1,120 @@
+package javapns.notification;
+
+import javax.net.ssl.*;
+
+import org.apache.log4j.*;
+
+/**
+ * A connection to a notification server opened in the background, ready to replace
+ * the active connection of a PushNotificationManager without delay.
+ *
+ * <p>The connection is opened and its TLS handshake completed in a dedicated daemon thread,
+ * so that switching connections (when rotating connections or after a write error) does not
+ * stall while connecting to Apple.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+class StandbyConnection implements Runnable {
+
+	protected static final Logger logger = Logger.getLogger(StandbyConnection.class);
+
+	private final AppleNotificationServer server;
+
+	private SSLSocket socket;
+
+	private boolean finished = false;
+
+	private boolean discarded = false;
+
+
+	/**
+	 * Create a standby connection.  Invoke start() to actually open it.
+	 *
+	 * @param server the server to connect to
+	 */
+	StandbyConnection(AppleNotificationServer server) {
+		this.server = server;
+	}
+
+
+	/**
+	 * Open the connection in a dedicated daemon thread.
+	 */
+	void start() {
+		Thread thread = new Thread(this, "JavaPNS standby connection");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Run method for the connecting thread; do not call this method directly.
+	 */
+	public void run() {
+		SSLSocket opened = null;
+		try {
+			opened = new ConnectionToNotificationServer(server).getSSLSocket();
+			opened.startHandshake();
+			logger.debug("Standby connection ready: " + opened);
+		} catch (Exception e) {
+			logger.debug("Could not open standby connection: " + e);
+			close(opened);
+			opened = null;
+		}
+		synchronized (this) {
+			finished = true;
+			if (discarded) close(opened);
+			else socket = opened;
+			notifyAll();
+		}
+	}
+
+
+	/**
+	 * Take the connection, waiting for it to be ready if it is still being opened.
+	 * A standby connection can only be taken once.
+	 *
+	 * @param timeout the maximum number of milliseconds to wait
+	 * @return a connected socket, or null if the connection could not be opened in time
+	 */
+	synchronized SSLSocket take(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!finished) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) break;
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		SSLSocket taken = socket;
+		socket = null;
+		if (!finished) discarded = true;
+		return taken;
+	}
+
+
+	/**
+	 * Close the connection, or make sure it gets closed as soon as it is opened.
+	 */
+	synchronized void discard() {
+		discarded = true;
+		close(socket);
+		socket = null;
+	}
+
+
+	AppleNotificationServer getServer() {
+		return server;
+	}
+
+
+	private static void close(SSLSocket socket) {
+		try {
+			if (socket != null) socket.close();
+		} catch (Exception e) {
+		}
+	}
+
+}
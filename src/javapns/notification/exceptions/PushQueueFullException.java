@@ -0,0 +1,36 @@
+package javapns.notification.exceptions;
+
+/**
+ * Specific exception indicating that a message could not be queued because a push queue is full.
+ *
+ * This exception is thrown by PushQueue.add(..) methods when the queue is configured with the FAIL
+ * backpressure policy.  When the queue is configured with the DROP_OLDEST policy, this exception is
+ * instead put in the PushedNotification object of the message that was dropped to make room.
+ *
+ * @author Sylvain Pedneault
+ */
+@SuppressWarnings("serial")
+public class PushQueueFullException extends RuntimeException {
+
+	/**
+	 * Default constructor
+	 */
+	public PushQueueFullException() {
+		super("Push queue is full");
+	}
+
+
+	public PushQueueFullException(int capacity) {
+		super(String.format("Push queue is full (%s messages max)", capacity));
+	}
+
+
+	/**
+	 * Constructor with custom message
+	 * @param message
+	 */
+	public PushQueueFullException(String message) {
+		super(message);
+	}
+
+}
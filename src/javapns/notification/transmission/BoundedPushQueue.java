@@ -0,0 +1,36 @@
+package javapns.notification.transmission;
+
+import javapns.notification.*;
+
+/**
+ * A PushQueue with a bounded capacity, whose messages can be tracked individually with futures.
+ * 
+ * <p>These methods are declared separately from PushQueue so that existing implementations of
+ * PushQueue remain valid.</p>
+ * 
+ * @author Sylvain Pedneault
+ */
+public interface BoundedPushQueue extends PushQueue {
+
+	/**
+	 * Queue a message for delivery and get a future tracking its outcome, so that results can be
+	 * collected as they become available instead of polling lists of pushed notifications.
+	 * The future is completed with a failed notification if the message cannot be queued.
+	 * @param message a payload/device pair
+	 * @return a future which completes once the outcome of the notification is final
+	 */
+	public PushFuture submit(PayloadPerDevice message);
+
+
+	/**
+	 * Set the maximum number of messages waiting in the queue, and what to do when a message
+	 * is added while the queue is full.  This method should be invoked before adding any message.
+	 * 
+	 * Default is 10000 messages with the BLOCK policy.
+	 * 
+	 * @param capacity the maximum number of messages waiting to be pushed (per thread, if the queue is backed by multiple threads)
+	 * @param policy the policy to apply when the queue is full
+	 */
+	public void setCapacity(int capacity, BACKPRESSURE policy);
+
+}
@@ -0,0 +1,26 @@
+package javapns.notification.transmission;
+
+/**
+ * <h1>An event listener for monitoring connections opened by NotificationThreads</h1>
+ * 
+ * <p>Progress listeners which also implement this interface are notified when connections
+ * become ready.  These events are declared separately from NotificationProgressListener so
+ * that existing listeners remain valid.</p>
+ * 
+ * @author Sylvain Pedneault
+ */
+public interface ConnectionProgressListener extends NotificationProgressListener {
+
+	/**
+	 * Invoked when a thread has opened its connection and is ready to push.
+	 * When threads are started in parallel, the handshake with Apple is also complete at this point.
+	 */
+	public void eventConnectionReady(NotificationThread notificationThread);
+
+
+	/**
+	 * Invoked when threads started in parallel have reached the required quorum of ready connections.
+	 */
+	public void eventQuorumReady(NotificationThreads notificationThreads);
+
+}
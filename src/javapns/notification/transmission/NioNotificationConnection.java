@@ -0,0 +1,622 @@
+package javapns.notification.transmission;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javapns.communication.exceptions.*;
+import javapns.json.*;
+import javapns.notification.*;
+import javapns.notification.exceptions.*;
+import javapns.notification.transmission.PushQueue.*;
+
+import javax.net.ssl.*;
+import javax.net.ssl.SSLEngineResult.*;
+
+import org.apache.log4j.*;
+
+/**
+ * A non-blocking connection to a notification server, driven by a NioSelectorLoop.
+ *
+ * <p>Notifications are queued by any thread, then encoded by the selector thread directly into
+ * the connection's outbound buffer, encrypted by a SSLEngine and written to the channel without
+ * ever blocking.  Error-response packets are decoded as they arrive.  When Apple closes the
+ * connection after an error, notifications pushed after the failed one are requeued and the
+ * connection is reopened, just like PushNotificationManager does with blocking sockets.</p>
+ *
+ * <p>Except for the queuing methods, all methods must be invoked by the selector thread.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+class NioNotificationConnection {
+
+	protected static final Logger logger = Logger.getLogger(NioNotificationConnection.class);
+
+	/* Maximum number of notifications encoded in one pass, so that a busy connection does not starve others sharing the selector */
+	private static final int MAX_FRAMES_PER_WRITE = 512;
+
+	/* Delay before reconnecting after a failure to connect */
+	private static final long RECONNECT_DELAY = 1000;
+
+	private static final int RESPONSE_PACKET_LENGTH = 6;
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final NioNotificationTransport transport;
+	private final NioSelectorLoop loop;
+	private final String host;
+	private final int port;
+
+	/* Notifications waiting to be written, queued by any thread */
+	private final Queue<PushedNotification> queue = new ConcurrentLinkedQueue<PushedNotification>();
+	private final AtomicBoolean writeScheduled = new AtomicBoolean();
+	private volatile Semaphore room;
+	private volatile Exception failure;
+	private volatile boolean closed = false;
+
+	/* The fields below are only accessed by the selector thread */
+	private final LinkedList<PushedNotification> retries = new LinkedList<PushedNotification>();
+	private final PushedNotificationWindow inFlight;
+	private final List<PushedNotification> unflushed = new ArrayList<PushedNotification>();
+	private final List<ResponsePacket> responses = new ArrayList<ResponsePacket>();
+	private final byte[] packet = new byte[RESPONSE_PACKET_LENGTH];
+	private final JSONByteWriter payloadWriter = new JSONByteWriter();
+
+	private SocketChannel channel;
+	private SelectionKey selectionKey;
+	private SSLEngine engine;
+	private ByteBuffer appOut;
+	private ByteBuffer netOut;
+	private ByteBuffer netIn;
+	private ByteBuffer appIn;
+	private boolean ready = false;
+	private int failedAttempts = 0;
+	private long reconnectAt = 0;
+	private long handshakeDeadline = 0;
+	private long idleSince = 0;
+
+
+	/**
+	 * Create a connection.  It is opened when registered with its selector loop.
+	 *
+	 * @param transport the transport owning this connection
+	 * @param loop the selector loop driving this connection
+	 * @param capacity the maximum number of notifications waiting in this connection's queue
+	 * @param inFlightWindowSize the number of pushed notifications kept for error-response lookups
+	 */
+	NioNotificationConnection(NioNotificationTransport transport, NioSelectorLoop loop, int capacity, int inFlightWindowSize) {
+		this.transport = transport;
+		this.loop = loop;
+		this.host = transport.getServer().getNotificationServerHost();
+		this.port = transport.getServer().getNotificationServerPort();
+		this.room = new Semaphore(capacity);
+		this.inFlight = new PushedNotificationWindow(inFlightWindowSize);
+	}
+
+
+	/**
+	 * Queue a notification, applying a backpressure policy if the queue is full.  May be invoked by any thread.
+	 *
+	 * @param notification a notification
+	 * @param policy the policy to apply if the queue is full
+	 * @throws PushQueueFullException if the queue is full and the policy is FAIL
+	 */
+	void add(PushedNotification notification, BACKPRESSURE policy) {
+		Semaphore room = this.room;
+		if (!room.tryAcquire()) {
+			switch (policy) {
+				case FAIL:
+					throw new PushQueueFullException(getQueued() + room.availablePermits());
+				case DROP_OLDEST:
+					/* A dropped notification hands its permit over to the new one */
+					PushedNotification dropped;
+					while ((dropped = queue.poll()) == null) {
+						/* The selector thread took the queued notifications but has not released their permits yet */
+						Thread.yield();
+						if (room.tryAcquire()) break;
+					}
+					if (dropped != null) rejected(dropped, new PushQueueFullException(getQueued() + room.availablePermits() + 1));
+					break;
+				default:
+					try {
+						while (!room.tryAcquire(1, TimeUnit.SECONDS)) {
+							if (closed) {
+								rejected(notification, failure != null ? failure : new CommunicationException("Connection closed", null));
+								return;
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						rejected(notification, e);
+						return;
+					}
+					break;
+			}
+		}
+		queue.add(notification);
+		if (closed) failQueued();
+		else if (writeScheduled.compareAndSet(false, true)) loop.requestWrite(this);
+	}
+
+
+	/**
+	 * Change the capacity of the queue.  Should be invoked before any notification is queued.
+	 *
+	 * @param capacity the maximum number of notifications waiting in the queue
+	 */
+	void setCapacity(int capacity) {
+		this.room = new Semaphore(capacity);
+	}
+
+
+	/**
+	 * Get the number of notifications waiting in the queue.  May be invoked by any thread.
+	 *
+	 * @return a number of notifications
+	 */
+	int getQueued() {
+		return queue.size();
+	}
+
+
+	/**
+	 * Check if this connection has been closed for good, either because the transport was stopped
+	 * or because the server could not be reached.  May be invoked by any thread.
+	 *
+	 * @return true if the connection no longer accepts notifications
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+
+	NioSelectorLoop getLoop() {
+		return loop;
+	}
+
+
+	/**
+	 * Open the channel and start the handshake.
+	 */
+	void open() {
+		if (closed) return;
+		reconnectAt = 0;
+		try {
+			engine = transport.getSSLContext().createSSLEngine(host, port);
+			engine.setUseClientMode(true);
+			if (appOut == null) {
+				SSLSession session = engine.getSession();
+				appOut = ByteBuffer.allocateDirect(session.getApplicationBufferSize());
+				appIn = ByteBuffer.allocateDirect(session.getApplicationBufferSize());
+				netOut = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+				netIn = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+			}
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			boolean connected = channel.connect(new InetSocketAddress(host, port));
+			selectionKey = channel.register(loop.getSelector(), connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+			int timeout = transport.getConnectTimeout();
+			handshakeDeadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+			logger.debug("Opening connection to " + host + ":" + port);
+			if (connected) connected();
+		} catch (Exception e) {
+			connectionLost(e);
+		}
+	}
+
+
+	/**
+	 * Handle a key selected by the selector loop.
+	 *
+	 * @param key a key registered by this connection
+	 */
+	void handle(SelectionKey key) {
+		try {
+			if (!key.isValid()) return;
+			if (key.isConnectable()) {
+				channel.finishConnect();
+				connected();
+			}
+			if (key.isValid() && key.isReadable()) read();
+			if (key.isValid() && key.isWritable()) {
+				if (ready) write();
+				else handshake();
+			}
+		} catch (Exception e) {
+			connectionLost(e);
+		}
+	}
+
+
+	/**
+	 * Write as many queued notifications as possible without blocking.
+	 */
+	void writePending() {
+		writeScheduled.set(false);
+		if (closed) return;
+		if (channel == null) {
+			/* Connections closed while idle are reopened only when there is something to push */
+			if (reconnectAt == 0) open();
+			return;
+		}
+		if (!ready) return;
+		try {
+			write();
+		} catch (Exception e) {
+			connectionLost(e);
+		}
+	}
+
+
+	/**
+	 * Invoked by the selector loop on every iteration to honour reconnection delays, to give up
+	 * on connections which could not be established in time and, when the transport is stopping,
+	 * to close the connection once it has been idle for the error-response grace period.
+	 *
+	 * @param now the current time in milliseconds
+	 */
+	void tick(long now) {
+		if (closed) return;
+		if (channel == null) {
+			if (reconnectAt > 0 && now >= reconnectAt) open();
+			else if (reconnectAt == 0 && transport.isStopping() && isIdle()) finish();
+			return;
+		}
+		if (!ready && handshakeDeadline > 0 && now >= handshakeDeadline) {
+			connectionLost(new SocketTimeoutException("Connection or TLS handshake not completed within " + transport.getConnectTimeout() + " ms"));
+			return;
+		}
+		if (ready && transport.isStopping() && isIdle()) {
+			if (idleSince == 0) idleSince = now;
+			else if (now - idleSince >= transport.getErrorResponseGracePeriod()) finish();
+		} else {
+			idleSince = 0;
+		}
+	}
+
+
+	/**
+	 * Close the channel, notifying the server if the connection is established.
+	 */
+	void close() {
+		if (channel != null && ready) {
+			try {
+				engine.closeOutbound();
+				engine.wrap(EMPTY, netOut);
+				netOut.flip();
+				channel.write(netOut);
+			} catch (Exception e) {
+			}
+		}
+		ready = false;
+		closeChannel();
+	}
+
+
+	private void connected() throws IOException {
+		selectionKey.interestOps(SelectionKey.OP_READ);
+		engine.beginHandshake();
+		handshake();
+	}
+
+
+	private void handshake() throws IOException {
+		while (!ready) {
+			HandshakeStatus status = engine.getHandshakeStatus();
+			if (status == HandshakeStatus.NEED_TASK) {
+				runDelegatedTasks();
+			} else if (status == HandshakeStatus.NEED_WRAP) {
+				if (!flushNetOut(false)) return;
+				if (engine.wrap(EMPTY, netOut).getStatus() == Status.CLOSED) throw new EOFException("Connection closed during handshake");
+				if (!flushNetOut(false)) return;
+			} else if (status == HandshakeStatus.FINISHED || status == HandshakeStatus.NOT_HANDSHAKING) {
+				handshakeCompleted();
+			} else {
+				/* NEED_UNWRAP, or NEED_UNWRAP_AGAIN on recent JREs */
+				if (!unwrap() && engine.getHandshakeStatus() == status) return;
+			}
+		}
+	}
+
+
+	private void handshakeCompleted() throws IOException {
+		ready = true;
+		handshakeDeadline = 0;
+		failedAttempts = 0;
+		logger.debug("Connection ready: " + channel + " (" + engine.getSession().getProtocol() + ")");
+		write();
+	}
+
+
+	private void runDelegatedTasks() {
+		Runnable task;
+		while ((task = engine.getDelegatedTask()) != null) {
+			task.run();
+		}
+	}
+
+
+	private void read() throws IOException {
+		int count = channel.read(netIn);
+		if (!ready) handshake();
+		if (ready) {
+			while (netIn.position() > 0 && unwrap()) {
+				runDelegatedTasks();
+			}
+			decodeResponses();
+		}
+		if (count < 0) throw new EOFException("Connection closed by server");
+	}
+
+
+	/**
+	 * Decrypt data received from the server.
+	 *
+	 * @return true if some data was consumed or produced
+	 */
+	private boolean unwrap() throws IOException {
+		netIn.flip();
+		SSLEngineResult result;
+		try {
+			result = engine.unwrap(netIn, appIn);
+		} finally {
+			netIn.compact();
+		}
+		Status status = result.getStatus();
+		if (status == Status.CLOSED) throw new EOFException("Connection closed by server");
+		if (status == Status.BUFFER_UNDERFLOW) return false;
+		if (status == Status.BUFFER_OVERFLOW) {
+			decodeResponses();
+			return true;
+		}
+		return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+	}
+
+
+	/**
+	 * Read and decode whatever the server sent before the connection failed.
+	 */
+	private void readRemaining() {
+		try {
+			while (channel.read(netIn) > 0 || netIn.position() > 0) {
+				if (!unwrap()) break;
+			}
+		} catch (Exception e) {
+		}
+		decodeResponses();
+	}
+
+
+	private void decodeResponses() {
+		appIn.flip();
+		while (appIn.remaining() >= RESPONSE_PACKET_LENGTH) {
+			appIn.get(packet);
+			ResponsePacket response = ResponsePacket.decode(packet, 0);
+			response.linkToPushedNotification(inFlight);
+			responses.add(response);
+			logger.debug("Error-response packet received: " + response.getMessage());
+		}
+		appIn.compact();
+	}
+
+
+	/**
+	 * Encode queued notifications into the outbound buffer, then encrypt and write them.
+	 */
+	private void write() throws IOException {
+		if (!flushNetOut(true)) return;
+		int frames = 0;
+		PushedNotification notification;
+		while (frames < MAX_FRAMES_PER_WRITE && (notification = nextNotification()) != null) {
+			int payloadLength;
+			String token;
+			int length;
+			try {
+				payloadLength = notification.getPayload().writePayload(payloadWriter);
+				token = notification.getDevice().getToken();
+				length = NotificationFrameEncoder.frameLength(true, token, payloadLength);
+			} catch (Exception e) {
+				rejected(notification, e);
+				continue;
+			}
+			if (length > appOut.remaining()) {
+				boolean flushed;
+				try {
+					flushed = wrapAndFlush();
+				} catch (IOException e) {
+					retries.addFirst(notification);
+					throw e;
+				}
+				if (!flushed) {
+					retries.addFirst(notification);
+					return;
+				}
+				if (length > appOut.remaining()) {
+					rejected(notification, new IllegalArgumentException("Notification frame too large: " + length + " bytes"));
+					continue;
+				}
+			}
+			int expiry = PushNotificationManager.computeExpiry(notification.getPayload(), notification);
+			try {
+				NotificationFrameEncoder.encode(appOut, true, notification.getIdentifier(), expiry, token, payloadWriter.getBuffer(), 0, payloadLength);
+			} catch (Exception e) {
+				rejected(notification, e);
+				continue;
+			}
+			notification.addTransmissionAttempt();
+			inFlight.add(notification);
+			unflushed.add(notification);
+			frames++;
+		}
+		wrapAndFlush();
+		if (frames == MAX_FRAMES_PER_WRITE && writeScheduled.compareAndSet(false, true)) loop.requestWrite(this);
+	}
+
+
+	private PushedNotification nextNotification() {
+		PushedNotification notification = retries.poll();
+		if (notification != null) return notification;
+		notification = queue.poll();
+		if (notification != null) room.release();
+		return notification;
+	}
+
+
+	/**
+	 * Encrypt the content of the outbound buffer and write it to the channel.
+	 *
+	 * @return true if everything could be written
+	 */
+	private boolean wrapAndFlush() throws IOException {
+		appOut.flip();
+		try {
+			while (appOut.hasRemaining()) {
+				Status status = engine.wrap(appOut, netOut).getStatus();
+				if (status == Status.CLOSED) throw new EOFException("Connection closed");
+				if (status == Status.BUFFER_OVERFLOW && !flushNetOut(false)) return false;
+			}
+		} finally {
+			appOut.compact();
+		}
+		return flushNetOut(true);
+	}
+
+
+	/**
+	 * Write encrypted data to the channel, and wait for the channel to become writable if it cannot all be written now.
+	 *
+	 * @param complete true to mark written notifications as transmitted if nothing remains to be written
+	 * @return true if everything could be written
+	 */
+	private boolean flushNetOut(boolean complete) throws IOException {
+		if (netOut.position() > 0) {
+			netOut.flip();
+			channel.write(netOut);
+			netOut.compact();
+		}
+		boolean flushed = netOut.position() == 0;
+		selectionKey.interestOps(flushed ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		if (flushed && complete && appOut.position() == 0 && !unflushed.isEmpty()) {
+			for (PushedNotification notification : unflushed) {
+				notification.setTransmissionCompleted(true);
+			}
+			unflushed.clear();
+		}
+		return flushed;
+	}
+
+
+	/**
+	 * Handle a closed or failed connection:  requeue notifications that Apple ignored or that
+	 * could not be written, then reconnect.
+	 *
+	 * @param cause the exception that caused the connection to close
+	 */
+	private void connectionLost(Exception cause) {
+		boolean wasReady = ready;
+		ready = false;
+		/* A write may fail because Apple already closed the connection after sending an error-response packet */
+		if (wasReady) readRemaining();
+		closeChannel();
+
+		List<PushedNotification> resend = null;
+		if (!responses.isEmpty()) {
+			/* Apple ignores all notifications pushed after the first failed one */
+			int first = -1;
+			for (ResponsePacket response : responses) {
+				int position = inFlight.positionOf(response.getIdentifier());
+				if (position >= 0 && (first < 0 || position < first)) first = position;
+			}
+			if (first >= 0) resend = inFlight.drainAfter(first);
+			responses.clear();
+			logger.debug("Connection closed after an error-response packet, resending " + (resend != null ? resend.size() : unflushed.size()) + " notifications");
+		}
+		/* Notifications not completely written are always the most recent ones */
+		if (resend == null) resend = inFlight.drainLast(unflushed.size());
+		unflushed.clear();
+		retries.addAll(0, resend);
+		if (appOut != null) {
+			appOut.clear();
+			netOut.clear();
+			netIn.clear();
+			appIn.clear();
+		}
+
+		if (!wasReady) {
+			failedAttempts++;
+			logger.debug("Could not connect to " + host + ":" + port + " (attempt " + failedAttempts + "): " + cause);
+		} else if (cause != null) {
+			logger.debug("Connection to " + host + ":" + port + " closed: " + cause);
+		}
+		if (failedAttempts > transport.getRetryAttempts()) {
+			fail(new CommunicationException("Could not connect to " + host + ":" + port + " after " + failedAttempts + " attempts", cause));
+		} else if (failedAttempts > 0) {
+			reconnectAt = System.currentTimeMillis() + RECONNECT_DELAY;
+		} else if (!isIdle()) {
+			open();
+		}
+	}
+
+
+	private boolean isIdle() {
+		return queue.isEmpty() && retries.isEmpty() && unflushed.isEmpty() && (appOut == null || appOut.position() == 0 && netOut.position() == 0);
+	}
+
+
+	/**
+	 * Close the connection for good, once everything has been pushed.
+	 */
+	private void finish() {
+		closed = true;
+		close();
+		inFlight.clear();
+		transport.connectionClosed(this);
+	}
+
+
+	/**
+	 * Close the connection for good after a critical exception, failing all notifications still waiting.
+	 */
+	private void fail(Exception exception) {
+		failure = exception;
+		closed = true;
+		for (PushedNotification notification : retries) {
+			rejected(notification, exception);
+		}
+		retries.clear();
+		failQueued();
+		transport.connectionFailed(this, exception);
+	}
+
+
+	private void failQueued() {
+		PushedNotification notification;
+		while ((notification = queue.poll()) != null) {
+			room.release();
+			rejected(notification, failure);
+		}
+	}
+
+
+	private void rejected(PushedNotification notification, Exception exception) {
+		notification.setException(exception);
+		notification.setTransmissionCompleted(false);
+		logger.debug("Notification " + notification.getIdentifier() + " not pushed: " + exception);
+	}
+
+
+	private void closeChannel() {
+		if (selectionKey != null) selectionKey.cancel();
+		try {
+			if (channel != null) channel.close();
+		} catch (Exception e) {
+		}
+		selectionKey = null;
+		channel = null;
+	}
+
+}
@@ -0,0 +1,449 @@
+package javapns.notification.transmission;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import javapns.communication.*;
+import javapns.communication.exceptions.*;
+import javapns.devices.*;
+import javapns.devices.exceptions.*;
+import javapns.notification.*;
+import javapns.notification.exceptions.*;
+
+import javax.net.ssl.*;
+
+import org.apache.log4j.*;
+
+/**
+ * <h1>Pushes notifications over many connections using a few non-blocking threads</h1>
+ *
+ * <p>Each {@link NotificationThread} owns a blocking socket, so pushing over N
+ * connections requires N threads.  This transport instead drives any number of connections from a small number
+ * of selector threads, using SSLEngine over non-blocking socket channels.  Notifications added to the transport
+ * are dispatched to connections in turn, encoded directly into each connection's network buffers and written
+ * as soon as the connection can accept them.  Error-response packets are read continuously, and notifications
+ * ignored by Apple after an error are pushed again over a new connection.</p>
+ *
+ * <p>Usage: create a transport, invoke {@code start()}, add notifications, then invoke {@code stop()} to wait
+ * until all notifications have been pushed and close all connections.  The blocking transport remains the
+ * default elsewhere in the library; proxies are not supported by this transport.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+public class NioNotificationTransport implements BoundedPushQueue {
+
+	protected static final Logger logger = Logger.getLogger(NioNotificationTransport.class);
+
+	private static final int DEFAULT_RETRIES = 3;
+	private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	private static final int DEFAULT_IN_FLIGHT_WINDOW_SIZE = 4096;
+	private static final int DEFAULT_CONNECT_TIMEOUT = 30 * 1000;
+
+	private final AppleNotificationServer server;
+	private final int connectionCount;
+	private final int selectorThreads;
+
+	private final List<NioSelectorLoop> loops = new Vector<NioSelectorLoop>();
+	private final List<NioNotificationConnection> connections = new Vector<NioNotificationConnection>();
+	private final List<Exception> criticalExceptions = new Vector<Exception>();
+	private final PushedNotifications notifications = new PushedNotifications();
+
+	private final AtomicInteger nextIdentifier = new AtomicInteger(1);
+	private final AtomicInteger nextConnection = new AtomicInteger();
+	private final Object finishPoint = new Object();
+
+	private SSLContext sslContext;
+	private volatile boolean started = false;
+	private volatile boolean stopping = false;
+	private int connectionsOpen = 0;
+
+	private int capacity = DEFAULT_QUEUE_CAPACITY;
+	private BACKPRESSURE backpressure = BACKPRESSURE.BLOCK;
+	private int retryAttempts = DEFAULT_RETRIES;
+	private long errorResponseGracePeriod = PushNotificationManager.DEFAULT_ERROR_RESPONSE_GRACE_PERIOD;
+	private int inFlightWindowSize = DEFAULT_IN_FLIGHT_WINDOW_SIZE;
+	private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private PushResultSink resultSink;
+
+
+	/**
+	 * Create a transport.  Invoke start() to open its connections.
+	 *
+	 * @param server the notification server to push to
+	 * @param connections the number of connections to open
+	 * @param selectorThreads the number of threads driving the connections
+	 */
+	public NioNotificationTransport(AppleNotificationServer server, int connections, int selectorThreads) {
+		this.server = server;
+		this.connectionCount = Math.max(1, connections);
+		this.selectorThreads = Math.max(1, Math.min(selectorThreads, this.connectionCount));
+	}
+
+
+	/**
+	 * Create a transport driving all its connections from a single thread.
+	 *
+	 * @param server the notification server to push to
+	 * @param connections the number of connections to open
+	 */
+	public NioNotificationTransport(AppleNotificationServer server, int connections) {
+		this(server, connections, 1);
+	}
+
+
+	/**
+	 * Start the selector threads and open all connections.  Connections are opened in parallel,
+	 * and notifications can be added right away:  they are pushed as soon as a connection is ready.
+	 *
+	 * If the keystore cannot be loaded or if the server requires a proxy, a critical exception
+	 * is recorded and every notification added to this transport fails with it.
+	 *
+	 * @return this transport
+	 */
+	public NioNotificationTransport start() {
+		if (started) return this;
+		started = true;
+		try {
+			if (ProxyManager.isUsingProxy(server)) throw new CommunicationException("Proxies are not supported by the non-blocking transport", null);
+			sslContext = new ConnectionToNotificationServer(server).getSSLContext();
+			for (int i = 0; i < selectorThreads; i++) {
+				NioSelectorLoop loop = new NioSelectorLoop("JavaPNS selector " + (i + 1));
+				loops.add(loop);
+				loop.start();
+			}
+			synchronized (finishPoint) {
+				for (int i = 0; i < connectionCount; i++) {
+					connections.add(new NioNotificationConnection(this, loops.get(i % loops.size()), capacity, inFlightWindowSize));
+				}
+				connectionsOpen = connections.size();
+			}
+			for (NioNotificationConnection connection : connections) {
+				connection.getLoop().register(connection);
+			}
+		} catch (Exception e) {
+			logger.error("Could not start transport: " + e.getMessage(), e);
+			criticalExceptions.add(e);
+			shutdownLoops();
+		}
+		return this;
+	}
+
+
+	/**
+	 * Queue a message for delivery.
+	 *
+	 * @param payload a payload
+	 * @param token a device token
+	 * @return this transport
+	 * @throws InvalidDeviceTokenFormatException
+	 */
+	public PushQueue add(Payload payload, String token) throws InvalidDeviceTokenFormatException {
+		return add(new PayloadPerDevice(payload, token));
+	}
+
+
+	/**
+	 * Queue a message for delivery.
+	 *
+	 * @param payload a payload
+	 * @param device a device
+	 * @return this transport
+	 */
+	public PushQueue add(Payload payload, Device device) {
+		return add(new PayloadPerDevice(payload, device));
+	}
+
+
+	/**
+	 * Queue a message for delivery.  Messages are dispatched to connections in turn.
+	 * If the chosen connection's queue is full, the configured backpressure policy applies.
+	 *
+	 * @param message a payload/device pair
+	 * @return this transport
+	 * @throws PushQueueFullException if the queue is full and the backpressure policy is FAIL
+	 */
+	public PushQueue add(PayloadPerDevice message) {
+		push(message, null);
+		return this;
+	}
+
+
+	/**
+	 * Queue a message for delivery and get a future tracking its outcome.
+	 * The future completes when an error-response packet is received for the notification,
+	 * or when the connection it was pushed on is closed without Apple reporting any error.
+	 *
+	 * @param message a payload/device pair
+	 * @return a future which completes once the outcome of the notification is final
+	 * @throws PushQueueFullException if the queue is full and the backpressure policy is FAIL
+	 */
+	public PushFuture submit(PayloadPerDevice message) {
+		PushFuture future = new PushFuture();
+		push(message, future);
+		return future;
+	}
+
+
+	private void push(PayloadPerDevice message, PushFuture future) {
+		NioNotificationConnection connection = nextConnection();
+		if (connection == null) {
+			List<Exception> exceptions = getCriticalExceptions();
+			Exception exception = exceptions.isEmpty() ? new CommunicationException("Transport is not running", null) : exceptions.get(0);
+			PushedNotification notification = new PushedNotification(message.getDevice(), message.getPayload(), exception, future);
+			if (resultSink != null) notification.reportTo(resultSink);
+			else addNotification(notification);
+			return;
+		}
+		PushedNotification notification = new PushedNotification(message.getDevice(), message.getPayload(), nextIdentifier.getAndIncrement());
+		if (future != null) future.bind(notification);
+		if (resultSink != null) notification.setSink(resultSink);
+		connection.add(notification, backpressure);
+		if (resultSink == null) addNotification(notification);
+	}
+
+
+	private synchronized void addNotification(PushedNotification notification) {
+		notifications.add(notification);
+	}
+
+
+	private NioNotificationConnection nextConnection() {
+		if (stopping) return null;
+		int count = connections.size();
+		int start = nextConnection.getAndIncrement() & Integer.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			NioNotificationConnection connection = connections.get((start + i) % count);
+			if (!connection.isClosed()) return connection;
+		}
+		return null;
+	}
+
+
+	/**
+	 * Wait until all notifications added to this transport have been pushed, wait for
+	 * error-response packets during the error-response grace period, then close all
+	 * connections and stop the selector threads.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		stopping = true;
+		synchronized (finishPoint) {
+			while (connectionsOpen > 0) {
+				finishPoint.wait();
+			}
+		}
+		shutdownLoops();
+		for (NioSelectorLoop loop : loops) {
+			loop.join();
+		}
+	}
+
+
+	private void shutdownLoops() {
+		for (NioSelectorLoop loop : loops) {
+			loop.shutdown();
+		}
+	}
+
+
+	/**
+	 * Invoked by a connection which has pushed everything it had to push after stop() was invoked.
+	 *
+	 * @param connection a connection
+	 */
+	void connectionClosed(NioNotificationConnection connection) {
+		synchronized (finishPoint) {
+			connectionsOpen--;
+			finishPoint.notifyAll();
+		}
+	}
+
+
+	/**
+	 * Invoked by a connection which gave up trying to connect to the server.
+	 *
+	 * @param connection a connection
+	 * @param exception the critical exception that caused the connection to fail
+	 */
+	void connectionFailed(NioNotificationConnection connection, Exception exception) {
+		logger.error("Connection failed: " + exception.getMessage(), exception);
+		criticalExceptions.add(exception);
+		connectionClosed(connection);
+	}
+
+
+	/**
+	 * Set the maximum number of messages waiting in each connection's queue, and what to do when
+	 * a message is added while the queue is full.  This method should be invoked before adding any message.
+	 *
+	 * Default is 10000 messages with the BLOCK policy.
+	 *
+	 * @param capacity the maximum number of messages waiting to be pushed, per connection
+	 * @param policy the policy to apply when the queue is full
+	 */
+	public void setCapacity(int capacity, BACKPRESSURE policy) {
+		this.capacity = capacity;
+		this.backpressure = policy == null ? BACKPRESSURE.BLOCK : policy;
+		for (NioNotificationConnection connection : connections) {
+			connection.setCapacity(capacity);
+		}
+	}
+
+
+	/**
+	 * Get a list of critical exceptions experienced by this transport, such as
+	 * KeystoreException or CommunicationException.  Exceptions related to tokens,
+	 * payloads and such are *not* included here, as they are noted in individual
+	 * PushedNotification objects.
+	 *
+	 * @return a list of critical exceptions
+	 */
+	public List<Exception> getCriticalExceptions() {
+		return new Vector<Exception>(criticalExceptions);
+	}
+
+
+	/**
+	 * Get a list of all notifications added to this transport.
+	 * Notifications still waiting to be pushed are included, with their transmission not completed yet.
+	 *
+	 * @param clearList true to clear the internal list, so that memory can be reclaimed
+	 * @return a list of pushed notifications
+	 */
+	public PushedNotifications getPushedNotifications(boolean clearList) {
+		synchronized (this) {
+			PushedNotifications all = new PushedNotifications(notifications.size());
+			all.addAll(notifications);
+			if (clearList) notifications.clear();
+			return all;
+		}
+	}
+
+
+	/**
+	 * Clear the internal list of PushedNotification objects.
+	 * @deprecated Not thead-safe.  use getPushedNotifications(true) instead.
+	 */
+	@Deprecated
+	public void clearPushedNotifications() {
+		getPushedNotifications(true);
+	}
+
+
+	/**
+	 * Get the number of connections that this transport opened and that have not been closed for good.
+	 *
+	 * @return a number of connections
+	 */
+	public int getConnectionsOpen() {
+		synchronized (finishPoint) {
+			return connectionsOpen;
+		}
+	}
+
+
+	/**
+	 * Set the number of consecutive attempts to connect before a connection gives up and fails
+	 * all notifications queued on it.
+	 *
+	 * Default is 3.
+	 *
+	 * @param retryAttempts a number of attempts
+	 */
+	public void setRetryAttempts(int retryAttempts) {
+		this.retryAttempts = retryAttempts;
+	}
+
+
+	public int getRetryAttempts() {
+		return retryAttempts;
+	}
+
+
+	/**
+	 * Set how long connections remain open after pushing their last notification when the
+	 * transport is stopping, so that error-response packets can still be received.
+	 *
+	 * Default is 1000 milliseconds.
+	 *
+	 * @param milliseconds a number of milliseconds
+	 */
+	public void setErrorResponseGracePeriod(long milliseconds) {
+		this.errorResponseGracePeriod = milliseconds;
+	}
+
+
+	public long getErrorResponseGracePeriod() {
+		return errorResponseGracePeriod;
+	}
+
+
+	/**
+	 * Set the number of notifications each connection keeps in order to resend those ignored by Apple
+	 * after an error.  This method should be invoked before start().
+	 *
+	 * Default is 4096.
+	 *
+	 * @param size a number of notifications
+	 */
+	public void setInFlightWindowSize(int size) {
+		this.inFlightWindowSize = size;
+	}
+
+
+	public int getInFlightWindowSize() {
+		return inFlightWindowSize;
+	}
+
+
+	/**
+	 * Set the maximum time allowed for opening a connection and completing the TLS handshake.
+	 * A connection which is not ready in time is closed and counts as a failed attempt to connect.
+	 *
+	 * Default is 30000 milliseconds.
+	 *
+	 * @param milliseconds a number of milliseconds, or 0 to wait indefinitely
+	 */
+	public void setConnectTimeout(int milliseconds) {
+		this.connectTimeout = milliseconds;
+	}
+
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+
+	/**
+	 * Provide a sink to report the outcome of every notification to, as soon as it is final.
+	 * When a sink is provided, notifications are no longer added to this transport's list of
+	 * pushed notifications.  This method should be invoked before adding any message.
+	 *
+	 * @param sink a thread-safe result sink, or null to retain pushed notifications
+	 */
+	public void setResultSink(PushResultSink sink) {
+		this.resultSink = sink;
+	}
+
+
+	public PushResultSink getResultSink() {
+		return resultSink;
+	}
+
+
+	AppleNotificationServer getServer() {
+		return server;
+	}
+
+
+	SSLContext getSSLContext() {
+		return sslContext;
+	}
+
+
+	boolean isStopping() {
+		return stopping;
+	}
+
+}
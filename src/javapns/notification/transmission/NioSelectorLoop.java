@@ -0,0 +1,137 @@
+package javapns.notification.transmission;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.log4j.*;
+
+/**
+ * A thread driving any number of non-blocking connections through a single Selector.
+ *
+ * <p>Connections are registered, written to and closed only from this thread.  Other threads
+ * hand work over by queuing a request and waking the selector up.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+class NioSelectorLoop implements Runnable {
+
+	protected static final Logger logger = Logger.getLogger(NioSelectorLoop.class);
+
+	/* Maximum time spent waiting in select(), so that reconnection delays and grace periods are honoured */
+	private static final long SELECT_TIMEOUT = 100;
+
+	private final Selector selector;
+	private final Thread thread;
+
+	private final Queue<NioNotificationConnection> registrations = new ConcurrentLinkedQueue<NioNotificationConnection>();
+	private final Queue<NioNotificationConnection> writeRequests = new ConcurrentLinkedQueue<NioNotificationConnection>();
+	private final List<NioNotificationConnection> connections = new ArrayList<NioNotificationConnection>();
+
+	private volatile boolean running = true;
+
+
+	/**
+	 * Create a selector loop.  Invoke start() to actually start its thread.
+	 *
+	 * @param name the name of the thread
+	 * @throws IOException thrown if the selector cannot be opened
+	 */
+	NioSelectorLoop(String name) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(this, name);
+		this.thread.setDaemon(true);
+	}
+
+
+	void start() {
+		thread.start();
+	}
+
+
+	/**
+	 * Ask the loop to open a connection and drive it from now on.
+	 *
+	 * @param connection a connection
+	 */
+	void register(NioNotificationConnection connection) {
+		registrations.add(connection);
+		selector.wakeup();
+	}
+
+
+	/**
+	 * Ask the loop to write notifications queued on a connection.
+	 *
+	 * @param connection a connection
+	 */
+	void requestWrite(NioNotificationConnection connection) {
+		writeRequests.add(connection);
+		selector.wakeup();
+	}
+
+
+	/**
+	 * Stop the loop, closing all connections it drives.
+	 */
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+
+	void join() throws InterruptedException {
+		thread.join();
+	}
+
+
+	Selector getSelector() {
+		return selector;
+	}
+
+
+	/**
+	 * Run method for the selector thread; do not call this method directly.
+	 */
+	public void run() {
+		while (running) {
+			try {
+				selector.select(SELECT_TIMEOUT);
+			} catch (IOException e) {
+				logger.error("Selector failed: " + e.getMessage(), e);
+				break;
+			}
+
+			NioNotificationConnection connection;
+			while ((connection = registrations.poll()) != null) {
+				connections.add(connection);
+				connection.open();
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				((NioNotificationConnection) key.attachment()).handle(key);
+			}
+
+			while ((connection = writeRequests.poll()) != null) {
+				connection.writePending();
+			}
+
+			long now = System.currentTimeMillis();
+			for (NioNotificationConnection driven : connections) {
+				driven.tick(now);
+			}
+		}
+		for (NioNotificationConnection connection : connections) {
+			connection.close();
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+		}
+	}
+
+}
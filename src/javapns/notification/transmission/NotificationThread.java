@@ -1,11 +1,15 @@
 package javapns.notification.transmission;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import javapns.communication.exceptions.*;
 import javapns.devices.*;
 import javapns.devices.exceptions.*;
+import javapns.devices.implementations.basic.*;
 import javapns.notification.*;
+import javapns.notification.exceptions.*;
 
 /**
  * <h1>Pushes payloads asynchroneously using a dedicated thread.</h1>
@@ -27,7 +31,7 @@ import javapns.notification.*;
  * @see NotificationThreads
  * @author Sylvain Pedneault
  */
-public class NotificationThread implements Runnable, PushQueue {
+public class NotificationThread implements Runnable, BoundedPushQueue {
 
 	/**
 	 * Working modes supported by Notification Threads.
@@ -51,8 +55,18 @@ public class NotificationThread implements Runnable, PushQueue {
 
 	private static final int DEFAULT_MAXNOTIFICATIONSPERCONNECTION = 200;
 
+	private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+	/* Maximum number of queued messages taken at once by the thread in QUEUE mode */
+	private static final int QUEUE_DRAIN_SIZE = 64;
+
 	private Thread thread;
+	private NotificationThreads group;
 	private boolean started = false;
+
+	/* Alternative ways of running this thread's work, instead of a dedicated platform thread */
+	private Executor executor;
+	private boolean virtualThread = false;
 	private PushNotificationManager notificationManager;
 	private AppleNotificationServer server;
 	private int maxNotificationsPerConnection = DEFAULT_MAXNOTIFICATIONSPERCONNECTION;
@@ -62,8 +76,11 @@ public class NotificationThread implements Runnable, PushQueue {
 	private int nextMessageIdentifier = 1;
 	private PushedNotifications notifications = new PushedNotifications();
 	private MODE mode = MODE.LIST;
-	private boolean busy = false;
+	private volatile boolean busy = false;
 	private Object lockForPushedNotifications = new Object();
+
+	/* Sink receiving outcomes instead of the list of pushed notifications, if any */
+	private PushResultSink resultSink;
 	private boolean newNotificationsAdded = false;
 
 	/* Single payload to multiple devices */
@@ -73,6 +90,31 @@ public class NotificationThread implements Runnable, PushQueue {
 	/* Individual payload per device */
 	private List<PayloadPerDevice> messages = new Vector<PayloadPerDevice>();
 
+	/* Frame pre-encoded from the payload for the duration of the job, possibly shared with other threads */
+	private BroadcastFrame broadcastFrame;
+
+	/* Cursor shared with other threads when pulling chunks of a common list in LIST mode */
+	private SharedChunkCursor chunks;
+	private int chunkedItems = 0;
+
+	/* Position of this thread's first device in the complete list, when the list was split between threads */
+	private int deviceIndexOffset = 0;
+
+	/* Stream shared with other threads when pulling devices or messages lazily from an iterator in LIST mode */
+	private SharedDeviceStream stream;
+
+	/* Random delay before connecting, to avoid all threads handshaking at the exact same time */
+	private long startDelay = 0;
+
+	/* Messages waiting to be pushed in QUEUE mode */
+	private volatile BlockingQueue<PayloadPerDevice> queue;
+	private BACKPRESSURE backpressure = BACKPRESSURE.BLOCK;
+
+	/* Number of messages taken from the queue but not pushed yet */
+	private volatile int inFlight = 0;
+	private final AtomicLong messagesQueued = new AtomicLong();
+	private final AtomicLong messagesPushed = new AtomicLong();
+
 	private Exception exception;
 
 
@@ -88,6 +130,7 @@ public class NotificationThread implements Runnable, PushQueue {
 	 */
 	public NotificationThread(NotificationThreads threads, PushNotificationManager notificationManager, AppleNotificationServer server, Payload payload, Object devices) {
 		this.thread = new Thread(threads, this, "JavaPNS" + (threads != null ? " grouped" : " standalone") + " notification thread in LIST mode");
+		this.group = threads;
 		this.notificationManager = notificationManager == null ? new PushNotificationManager() : notificationManager;
 		this.server = server;
 		this.payload = payload;
@@ -107,6 +150,7 @@ public class NotificationThread implements Runnable, PushQueue {
 	 */
 	public NotificationThread(NotificationThreads threads, PushNotificationManager notificationManager, AppleNotificationServer server, Object messages) {
 		this.thread = new Thread(threads, this, "JavaPNS" + (threads != null ? " grouped" : " standalone") + " notification thread in LIST mode");
+		this.group = threads;
 		this.notificationManager = notificationManager == null ? new PushNotificationManager() : notificationManager;
 		this.server = server;
 		this.messages = Devices.asPayloadsPerDevices(messages);
@@ -148,9 +192,11 @@ public class NotificationThread implements Runnable, PushQueue {
 	 */
 	public NotificationThread(NotificationThreads threads, PushNotificationManager notificationManager, AppleNotificationServer server) {
 		this.thread = new Thread(threads, this, "JavaPNS" + (threads != null ? " grouped" : " standalone") + " notification thread in QUEUE mode");
+		this.group = threads;
 		this.notificationManager = notificationManager == null ? new PushNotificationManager() : notificationManager;
 		this.server = server;
 		this.mode = MODE.QUEUE;
+		this.queue = new LinkedBlockingQueue<PayloadPerDevice>(DEFAULT_QUEUE_CAPACITY);
 		this.thread.setDaemon(true);
 	}
 
@@ -180,31 +226,65 @@ public class NotificationThread implements Runnable, PushQueue {
 	 * Start the transmission thread.
 	 * 
 	 * This method returns immediately, as the thread starts working on its own.
+	 * If an executor was provided, the work is submitted to it instead.
+	 * If virtual threads were requested and the JRE supports them, the work runs in a virtual thread.
 	 */
 	public synchronized NotificationThread start() {
 		if (started) return this;
 		started = true;
 		try {
-			this.thread.start();
+			if (executor != null) {
+				executor.execute(this);
+			} else {
+				if (virtualThread && VirtualThreads.isSupported()) this.thread = VirtualThreads.newThread(this, thread.getName());
+				this.thread.start();
+			}
 		} catch (IllegalStateException e) {
+		} catch (RejectedExecutionException e) {
+			notStarted(e);
+		} catch (UnsupportedOperationException e) {
+			notStarted(e);
 		}
 		return this;
 	}
 
 
+	/**
+	 * Report work which will never run as finished right away.
+	 *
+	 * @param e the reason why the work could not be started
+	 */
+	private void notStarted(Exception e) {
+		this.exception = e;
+		if (listener != null) listener.eventCriticalException(this, e);
+		if (group != null) {
+			group.connectionSettled(this, false);
+			group.threadFinished(this);
+		}
+	}
+
+
 	/**
 	 * Run method for the thread; do not call this method directly.
 	 */
 	public void run() {
-		switch (mode) {
-			case LIST:
-				runList();
-				break;
-			case QUEUE:
-				runQueue();
-				break;
-			default:
-				break;
+		/* Executor threads are named after this thread while they work for it */
+		Thread current = Thread.currentThread();
+		String previousName = current.getName();
+		if (current != thread) current.setName(thread.getName());
+		try {
+			switch (mode) {
+				case LIST:
+					runList();
+					break;
+				case QUEUE:
+					runQueue();
+					break;
+				default:
+					break;
+			}
+		} finally {
+			if (current != thread) current.setName(previousName);
 		}
 	}
 
@@ -213,32 +293,21 @@ public class NotificationThread implements Runnable, PushQueue {
 		if (listener != null) listener.eventThreadStarted(this);
 		busy = true;
 		try {
-			int total = size();
-			notificationManager.initializeConnection(server);
-			for (int i = 0; i < total; i++) {
-				Device device;
-				Payload payload;
-				if (devices != null) {
-					device = devices.get(i);
-					payload = this.payload;
-				} else {
-					PayloadPerDevice message = messages.get(i);
-					device = message.getDevice();
-					payload = message.getPayload();
-				}
-				int message = newMessageIdentifier();
-				PushedNotification notification = notificationManager.sendNotification(device, payload, false, message);
-				synchronized (lockForPushedNotifications) {
-					notifications.add(notification);
-					newNotificationsAdded = true;
-				}
-				try {
-					if (sleepBetweenNotifications > 0) Thread.sleep(sleepBetweenNotifications);
-				} catch (InterruptedException e) {
-				}
-				if (i != 0 && i % maxNotificationsPerConnection == 0) {
-					if (listener != null) listener.eventConnectionRestarted(this);
-					notificationManager.restartConnection(server);
+			openConnection();
+			prepareBroadcastFrame();
+			if (stream != null) {
+				runListStream();
+			} else if (chunks != null) {
+				runListChunks();
+			} else {
+				int total = size();
+				for (int i = 0; i < total; i++) {
+					pushListItem(i);
+					prepareConnectionRotation(i);
+					if (i != 0 && i % maxNotificationsPerConnection == 0) {
+						if (listener != null) listener.eventConnectionRestarted(this);
+						notificationManager.restartConnection(server);
+					}
 				}
 			}
 			notificationManager.stopConnection();
@@ -248,45 +317,215 @@ public class NotificationThread implements Runnable, PushQueue {
 		} catch (CommunicationException e) {
 			this.exception = e;
 			if (listener != null) listener.eventCriticalException(this, e);
+		} finally {
+			if (exception != null) closeAfterCriticalException();
 		}
 		busy = false;
 		if (listener != null) listener.eventThreadFinished(this);
 		/* Also notify the parent NotificationThreads, so that it can determine when all threads have finished working */
-		if (this.thread.getThreadGroup() instanceof NotificationThreads) ((NotificationThreads) this.thread.getThreadGroup()).threadFinished(this);
+		if (group != null) group.threadFinished(this);
+	}
+
+
+	/**
+	 * Open the connection and report it to the parent NotificationThreads, if any.
+	 * When the parent starts threads in parallel, the handshake is completed right away
+	 * and this method returns once enough connections are ready to start pushing.
+	 */
+	private void openConnection() throws CommunicationException, KeystoreException {
+		boolean ready = false;
+		try {
+			if (startDelay > 0) {
+				try {
+					Thread.sleep(startDelay);
+				} catch (InterruptedException e) {
+				}
+			}
+			notificationManager.initializeConnection(server);
+			if (group != null && group.isParallelStart()) notificationManager.completeHandshake();
+			ready = true;
+			if (listener instanceof ConnectionProgressListener) ((ConnectionProgressListener) listener).eventConnectionReady(this);
+		} finally {
+			if (group != null) group.connectionSettled(this, ready);
+		}
+	}
+
+
+	/**
+	 * When pushing a single payload, serialize it once for all devices instead of once per device,
+	 * unless a broadcast frame was already provided (typically shared by all threads of a group).
+	 */
+	private void prepareBroadcastFrame() {
+		if (payload == null || broadcastFrame != null) return;
+		try {
+			broadcastFrame = new BroadcastFrame(payload);
+		} catch (Exception e) {
+			/* The payload cannot be broadcast, so the problem (if any) will be reported for each notification */
+		}
+	}
+
+
+	/**
+	 * Push chunks of a list shared with other threads until the list is exhausted.
+	 */
+	private void runListChunks() throws CommunicationException, KeystoreException {
+		int notificationsPushed = 0;
+		for (int start = chunks.claim(); start >= 0; start = chunks.claim()) {
+			int end = chunks.endOf(start);
+			for (int i = start; i < end; i++) {
+				chunkedItems++;
+				pushListItem(i);
+				prepareConnectionRotation(++notificationsPushed);
+				if (notificationsPushed % maxNotificationsPerConnection == 0) {
+					if (listener != null) listener.eventConnectionRestarted(this);
+					notificationManager.restartConnection(server);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Push chunks pulled from a stream shared with other threads until the stream is exhausted.
+	 */
+	private void runListStream() throws CommunicationException, KeystoreException {
+		int notificationsPushed = 0;
+		List<Object> chunk = new ArrayList<Object>(stream.getChunkSize());
+		for (int start = stream.claim(chunk); start >= 0; start = stream.claim(chunk)) {
+			int index = start;
+			for (Object item : chunk) {
+				/* Null items are skipped, but still count as positions in the stream */
+				if (item == null) {
+					index++;
+					continue;
+				}
+				chunkedItems++;
+				pushStreamItem(item, index++);
+				prepareConnectionRotation(++notificationsPushed);
+				if (notificationsPushed % maxNotificationsPerConnection == 0) {
+					if (listener != null) listener.eventConnectionRestarted(this);
+					notificationManager.restartConnection(server);
+				}
+			}
+		}
+		RuntimeException e = stream.takeException();
+		if (e != null) {
+			this.exception = e;
+			if (listener != null) listener.eventCriticalException(this, e);
+		}
+	}
+
+
+	/**
+	 * Push a notification for an item pulled from a shared stream:  a token, a device or a payload/device pair.
+	 */
+	private void pushStreamItem(Object item, int index) throws CommunicationException, KeystoreException {
+		if (item instanceof PayloadPerDevice) {
+			PayloadPerDevice message = (PayloadPerDevice) item;
+			pushNotification(message.getDevice(), message.getPayload(), index);
+		} else if (item instanceof Device) {
+			pushNotification((Device) item, payload, index);
+		} else {
+			BasicDevice device = new BasicDevice();
+			device.setToken(item.toString());
+			pushNotification(device, payload, index);
+		}
+	}
+
+
+	/**
+	 * Prepare a standby connection (if enabled in the notification manager) shortly before
+	 * the connection is rotated because of the maximum number of notifications per connection.
+	 */
+	private void prepareConnectionRotation(int notificationsPushed) {
+		int lead = Math.max(1, maxNotificationsPerConnection / 10);
+		if ((notificationsPushed + lead) % maxNotificationsPerConnection == 0) notificationManager.prepareStandbyConnection();
+	}
+
+
+	/**
+	 * Push the notification at the given index of this thread's list of devices or messages.
+	 */
+	private void pushListItem(int i) throws CommunicationException, KeystoreException {
+		Device device;
+		Payload payload;
+		if (devices != null) {
+			device = devices.get(i);
+			payload = this.payload;
+		} else {
+			PayloadPerDevice message = messages.get(i);
+			device = message.getDevice();
+			payload = message.getPayload();
+		}
+		pushNotification(device, payload, chunks != null ? i : deviceIndexOffset + i);
+	}
+
+
+	private void pushNotification(Device device, Payload payload, int deviceIndex) throws CommunicationException, KeystoreException {
+		int message = newMessageIdentifier();
+		/* The frame was built from this thread's payload for the duration of the job */
+		BroadcastFrame frame = payload == this.payload ? broadcastFrame : null;
+		PushedNotification notification = frame != null ? notificationManager.sendNotification(device, frame, false, message, null, deviceIndex) : notificationManager.sendNotification(device, payload, false, message, null, deviceIndex);
+		retain(notification);
+		pauseBetweenNotifications();
+	}
+
+
+	/**
+	 * Wait for the configured delay between notifications, if any.
+	 * Batched messages are written out first if the delay would hold them longer than the batch window.
+	 */
+	private void pauseBetweenNotifications() throws CommunicationException, KeystoreException {
+		if (sleepBetweenNotifications <= 0) return;
+		notificationManager.flushIfDue(sleepBetweenNotifications);
+		try {
+			Thread.sleep(sleepBetweenNotifications);
+		} catch (InterruptedException e) {
+		}
 	}
 
 
 	private void runQueue() {
 		if (listener != null) listener.eventThreadStarted(this);
+		List<PayloadPerDevice> taken = new ArrayList<PayloadPerDevice>(QUEUE_DRAIN_SIZE);
 		try {
-			notificationManager.initializeConnection(server);
+			openConnection();
 			int notificationsPushed = 0;
 			while (mode == MODE.QUEUE) {
-				while (!messages.isEmpty()) {
-					busy = true;
-					PayloadPerDevice message = messages.get(0);
-					messages.remove(message);
-					notificationsPushed++;
-					int messageId = newMessageIdentifier();
-					PushedNotification notification = notificationManager.sendNotification(message.getDevice(), message.getPayload(), false, messageId);
-					synchronized (lockForPushedNotifications) {
-						notifications.add(notification);
-						newNotificationsAdded = true;
-					}
+				/* Read the queue on every pass, as setCapacity may replace it;  messages left in a replaced queue are moved by offer() or taken from it here */
+				BlockingQueue<PayloadPerDevice> queue = this.queue;
+				PayloadPerDevice next = queue.poll();
+				if (next == null) {
+					/* Nothing left to push for now, so write out any batched message and wait for more */
+					notificationManager.flush();
 					try {
-						if (sleepBetweenNotifications > 0) Thread.sleep(sleepBetweenNotifications);
+						next = queue.poll(1, TimeUnit.SECONDS);
 					} catch (InterruptedException e) {
+						break;
 					}
+					if (next == null) continue;
+				}
+				taken.add(next);
+				queue.drainTo(taken, QUEUE_DRAIN_SIZE - 1);
+				inFlight = taken.size();
+				busy = true;
+				for (PayloadPerDevice message : taken) {
+					notificationsPushed++;
+					int messageId = newMessageIdentifier();
+					PushFuture future = message instanceof SubmittedMessage ? ((SubmittedMessage) message).future : null;
+					PushedNotification notification = notificationManager.sendNotification(message.getDevice(), message.getPayload(), false, messageId, future);
+					retain(notification);
+					messagesPushed.incrementAndGet();
+					pauseBetweenNotifications();
+					prepareConnectionRotation(notificationsPushed);
 					if (notificationsPushed != 0 && notificationsPushed % maxNotificationsPerConnection == 0) {
 						if (listener != null) listener.eventConnectionRestarted(this);
 						notificationManager.restartConnection(server);
 					}
-					busy = false;
-				}
-				try {
-					Thread.sleep(10 * 1000);
-				} catch (Exception e) {
+					inFlight--;
 				}
+				taken.clear();
+				busy = false;
 			}
 			notificationManager.stopConnection();
 		} catch (KeystoreException e) {
@@ -295,10 +534,39 @@ public class NotificationThread implements Runnable, PushQueue {
 		} catch (CommunicationException e) {
 			this.exception = e;
 			if (listener != null) listener.eventCriticalException(this, e);
+		} finally {
+			if (exception != null) closeAfterCriticalException();
+		}
+		if (exception != null) {
+			/* Messages that will never be pushed must not leave their futures pending */
+			failSubmittedMessages(taken, exception);
+			List<PayloadPerDevice> remaining = new ArrayList<PayloadPerDevice>();
+			queue.drainTo(remaining);
+			failSubmittedMessages(remaining, exception);
 		}
 		if (listener != null) listener.eventThreadFinished(this);
 		/* Also notify the parent NotificationThreads, so that it can determine when all threads have finished working */
-		if (this.thread.getThreadGroup() instanceof NotificationThreads) ((NotificationThreads) this.thread.getThreadGroup()).threadFinished(this);
+		if (group != null) group.threadFinished(this);
+	}
+
+
+	/**
+	 * Close the connection after a critical exception, so that a standby connection prepared
+	 * in the background is not left open.  Errors are ignored, as the thread is ending anyway.
+	 */
+	private void closeAfterCriticalException() {
+		try {
+			notificationManager.stopConnection();
+		} catch (Exception e) {
+			/* Do not complain if connection is already closed... */
+		}
+	}
+
+
+	private void failSubmittedMessages(List<PayloadPerDevice> messages, Exception exception) {
+		for (PayloadPerDevice message : messages) {
+			if (message instanceof SubmittedMessage && ((SubmittedMessage) message).future.getNotification() == null) addDroppedMessage(message, exception);
+		}
 	}
 
 
@@ -312,17 +580,193 @@ public class NotificationThread implements Runnable, PushQueue {
 	}
 
 
+	/**
+	 * Queue a message for delivery.  If the queue is full, the configured backpressure policy applies.
+	 * 
+	 * @param message a payload/device pair
+	 * @return this thread
+	 * @throws PushQueueFullException if the queue is full and the backpressure policy is FAIL
+	 */
 	public PushQueue add(PayloadPerDevice message) {
-		if (mode != MODE.QUEUE) return this;
-		try {
-			messages.add(message);
-			this.thread.interrupt();
-		} catch (Exception e) {
-		}
+		offer(message);
 		return this;
 	}
 
 
+	/**
+	 * Queue a message for delivery and get a future tracking its outcome.
+	 * If the queue is full, the configured backpressure policy applies.
+	 * 
+	 * @param message a payload/device pair
+	 * @return a future which completes once the outcome of the notification is final
+	 * @throws PushQueueFullException if the queue is full and the backpressure policy is FAIL
+	 */
+	public PushFuture submit(PayloadPerDevice message) {
+		PushFuture future = new PushFuture();
+		if (!offer(new SubmittedMessage(message, future))) {
+			Exception reason = exception != null ? exception : new IllegalStateException("Message not queued: thread is not in QUEUE mode or was interrupted");
+			addDroppedMessage(message, reason, future);
+		}
+		return future;
+	}
+
+
+	/**
+	 * Queue a message, applying the backpressure policy if the queue is full.
+	 * 
+	 * @return true if the message was queued
+	 */
+	private boolean offer(PayloadPerDevice message) {
+		if (mode != MODE.QUEUE) return false;
+		while (true) {
+			BlockingQueue<PayloadPerDevice> queue = this.queue;
+			if (!offer(queue, message)) return false;
+			/* If setCapacity replaced the queue meanwhile, the message may have been left behind in the previous one */
+			if (this.queue == queue || !queue.remove(message)) {
+				messagesQueued.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+
+	/**
+	 * Offer a message to the given queue, applying the backpressure policy if it is full.
+	 * 
+	 * @return true if the message was added to the queue
+	 */
+	private boolean offer(BlockingQueue<PayloadPerDevice> queue, PayloadPerDevice message) {
+		if (queue.offer(message)) return true;
+		switch (backpressure) {
+			case FAIL:
+				throw new PushQueueFullException(queue.remainingCapacity() + queue.size());
+			case DROP_OLDEST:
+				while (!queue.offer(message)) {
+					PayloadPerDevice dropped = queue.poll();
+					if (dropped != null) addDroppedMessage(dropped, new PushQueueFullException(queue.remainingCapacity() + queue.size()));
+				}
+				return true;
+			default:
+				try {
+					/* Wait for room, unless the thread ends because of a critical exception */
+					while (!queue.offer(message, 1, TimeUnit.SECONDS)) {
+						if (exception != null) return false;
+					}
+					return true;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+		}
+	}
+
+
+	private void addDroppedMessage(PayloadPerDevice message, Exception exception) {
+		addDroppedMessage(message, exception, message instanceof SubmittedMessage ? ((SubmittedMessage) message).future : null);
+	}
+
+
+	private void addDroppedMessage(PayloadPerDevice message, Exception exception, PushFuture future) {
+		PushedNotification notification = new PushedNotification(message.getDevice(), message.getPayload(), exception, future);
+		if (resultSink != null) notification.reportTo(resultSink);
+		else retain(notification);
+	}
+
+
+	/**
+	 * Add a notification to this thread's list of pushed notifications, unless outcomes are reported to a result sink.
+	 */
+	private void retain(PushedNotification notification) {
+		if (resultSink != null) return;
+		synchronized (lockForPushedNotifications) {
+			notifications.add(notification);
+			newNotificationsAdded = true;
+		}
+	}
+
+
+	/**
+	 * Set the maximum number of messages waiting in this thread's queue, and what to do when
+	 * a message is added while the queue is full.  Messages already queued are kept, unless
+	 * the new capacity is smaller than the number of messages queued:  messages which no longer
+	 * fit are then reported as failed notifications with a PushQueueFullException.
+	 * This method should be invoked before adding any message.
+	 * 
+	 * Default is 10000 messages with the BLOCK policy.
+	 * 
+	 * @param capacity the maximum number of messages waiting to be pushed
+	 * @param policy the policy to apply when the queue is full
+	 */
+	public synchronized void setCapacity(int capacity, BACKPRESSURE policy) {
+		this.backpressure = policy == null ? BACKPRESSURE.BLOCK : policy;
+		if (mode != MODE.QUEUE || capacity == getCapacity()) return;
+		BlockingQueue<PayloadPerDevice> previous = this.queue;
+		BlockingQueue<PayloadPerDevice> resized = new LinkedBlockingQueue<PayloadPerDevice>(capacity);
+		previous.drainTo(resized, capacity);
+		this.queue = resized;
+		/* Messages added to the previous queue while it was being drained are moved too, if they fit */
+		PayloadPerDevice overflow;
+		while ((overflow = previous.poll()) != null) {
+			if (!resized.offer(overflow)) addDroppedMessage(overflow, new PushQueueFullException(capacity));
+		}
+	}
+
+
+	/**
+	 * Get the maximum number of messages waiting in this thread's queue.
+	 * 
+	 * @return a number of messages, or 0 if this thread is not in QUEUE mode
+	 */
+	public int getCapacity() {
+		if (queue == null) return 0;
+		return queue.remainingCapacity() + queue.size();
+	}
+
+
+	/**
+	 * Get the policy applied when a message is added to this thread's queue while it is full.
+	 * 
+	 * @return a backpressure policy
+	 */
+	public BACKPRESSURE getBackpressure() {
+		return backpressure;
+	}
+
+
+	/**
+	 * Get the amount of work pending in this thread:  the number of messages waiting in
+	 * the queue plus the number of messages taken from the queue but not pushed yet.
+	 * A thread which ended because of a critical exception reports Integer.MAX_VALUE,
+	 * so that no more work is routed to it.
+	 * 
+	 * @return a number of messages
+	 */
+	public int getLoad() {
+		if (exception != null) return Integer.MAX_VALUE;
+		return (queue != null ? queue.size() : 0) + inFlight;
+	}
+
+
+	/**
+	 * Get the total number of messages accepted by this thread's queue.
+	 * 
+	 * @return a number of messages
+	 */
+	public long getMessagesQueued() {
+		return messagesQueued.get();
+	}
+
+
+	/**
+	 * Get the total number of queued messages that this thread pushed (successfully or not).
+	 * 
+	 * @return a number of messages
+	 */
+	public long getMessagesPushed() {
+		return messagesPushed.get();
+	}
+
+
 	/**
 	 * Set a maximum number of notifications that should be streamed over a continuous connection
 	 * to an Apple server.  When that maximum is reached, the thread automatically closes and
@@ -361,11 +805,86 @@ public class NotificationThread implements Runnable, PushQueue {
 	}
 
 
+	/**
+	 * Configure batching of messages on this thread's connection.
+	 * See {@link PushNotificationManager#setBatching(int, long)} for details.
+	 * 
+	 * Default is 0 (no batching).
+	 * 
+	 * @param batchSize the maximum number of bytes to accumulate before writing messages out (0 to disable batching)
+	 * @param batchWindow the maximum number of milliseconds a message can be held in a batch
+	 */
+	public void setBatching(int batchSize, long batchWindow) {
+		notificationManager.setBatching(batchSize, batchWindow);
+	}
+
+
+	/**
+	 * Get the notification manager used by this thread.
+	 * 
+	 * @return the notification manager handling this thread's connection
+	 */
+	public PushNotificationManager getNotificationManager() {
+		return notificationManager;
+	}
+
+
 	void setDevices(List<Device> devices) {
 		this.devices = devices;
 	}
 
 
+	/**
+	 * Make this thread wait before opening its connection, so that threads started
+	 * in parallel do not all connect to Apple at the same instant.
+	 * 
+	 * @param milliseconds the number of milliseconds to wait before connecting
+	 */
+	void setStartDelay(long milliseconds) {
+		this.startDelay = milliseconds;
+	}
+
+
+	Payload getPayload() {
+		return payload;
+	}
+
+
+	void setDeviceIndexOffset(int offset) {
+		this.deviceIndexOffset = offset;
+	}
+
+
+	void setBroadcastFrame(BroadcastFrame frame) {
+		this.broadcastFrame = frame;
+	}
+
+
+	/**
+	 * Make this thread pull chunks of its list of devices or messages from a cursor
+	 * shared with other threads working on the same list, instead of pushing the whole list.
+	 * 
+	 * @param chunks a cursor shared by all threads working on the list
+	 */
+	void setChunks(SharedChunkCursor chunks) {
+		this.chunks = chunks;
+		this.notifications.setMaxRetained(chunks.getTotal());
+	}
+
+
+	/**
+	 * Make this thread pull devices or messages lazily from a stream shared with other threads,
+	 * instead of pushing a list held in memory.  Since the number of notifications is not known
+	 * in advance, only the most recent notifications are retained (see {@link PushedNotifications#setMaxRetained(int)}).
+	 * 
+	 * @param stream a stream shared by all threads working on it
+	 */
+	void setStream(SharedDeviceStream stream) {
+		this.stream = stream;
+		this.notifications.setMaxRetained(new PushedNotifications().getMaxRetained());
+	}
+
+
 	/**
 	 * Get the list of devices associated with this thread.
 	 * 
@@ -378,14 +897,64 @@ public class NotificationThread implements Runnable, PushQueue {
 
 	/**
 	 * Get the number of devices that this thread pushes to.
+	 * When pulling chunks of a shared list or stream, this is the number of devices claimed so far.
 	 * 
 	 * @return the number of devices registered with this thread
 	 */
 	public int size() {
+		if (mode == MODE.QUEUE) return queue.size();
+		if (chunks != null || stream != null) return chunkedItems;
 		return devices != null ? devices.size() : messages.size();
 	}
 
 
+	/**
+	 * Run this thread's work using an executor instead of a dedicated platform thread.
+	 * This method must be invoked before start().
+	 * 
+	 * In QUEUE mode, the work occupies one of the executor's threads until the queue is stopped,
+	 * so the executor must be able to run at least as many tasks concurrently as it is given
+	 * NotificationThread objects in QUEUE mode.
+	 * 
+	 * @param executor an executor, or null to use a dedicated thread (the default)
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+
+	/**
+	 * Run this thread's work in a virtual thread instead of a platform thread, if the JRE supports
+	 * virtual threads (Java 21 or later).  On older JREs, a platform thread is used as usual.
+	 * This method must be invoked before start().
+	 * 
+	 * @param virtualThread true to use a virtual thread (default is false)
+	 */
+	public void setVirtualThread(boolean virtualThread) {
+		this.virtualThread = virtualThread;
+	}
+
+
+	public boolean isVirtualThread() {
+		return virtualThread;
+	}
+
+
+	/**
+	 * Check if the running JRE supports virtual threads.
+	 * 
+	 * @return true if setVirtualThread(true) actually runs threads in virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return VirtualThreads.isSupported();
+	}
+
+
 	/**
 	 * Provide an event listener which will be notified of this thread's progress.
 	 * 
@@ -401,6 +970,25 @@ public class NotificationThread implements Runnable, PushQueue {
 	}
 
 
+	/**
+	 * Provide a sink to report the outcome of every notification pushed by this thread to, as soon as it is final.
+	 * When a sink is provided, notifications are no longer added to this thread's list of pushed notifications,
+	 * so memory use does not grow with the number of notifications pushed.
+	 * This method should be invoked before start().
+	 * 
+	 * @param sink a thread-safe result sink, or null to retain pushed notifications in this thread's list
+	 */
+	public void setResultSink(PushResultSink sink) {
+		this.resultSink = sink;
+		notificationManager.setResultSink(sink);
+	}
+
+
+	public PushResultSink getResultSink() {
+		return resultSink;
+	}
+
+
 	/**
 	 * Set the thread number so that generated message identifiers can be made 
 	 * unique across all threads.
@@ -522,10 +1110,12 @@ public class NotificationThread implements Runnable, PushQueue {
 
 	/**
 	 * Get the messages associated with this thread, if any.
+	 * In QUEUE mode, this is a snapshot of the messages waiting to be pushed.
 	 * 
 	 * @return messages
 	 */
 	public List<PayloadPerDevice> getMessages() {
+		if (mode == MODE.QUEUE) return new Vector<PayloadPerDevice>(queue);
 		return messages;
 	}
 
@@ -576,4 +1166,20 @@ public class NotificationThread implements Runnable, PushQueue {
 		}
 	}
 
+
+	/**
+	 * A queued message submitted with a future tracking its outcome.
+	 */
+	private static class SubmittedMessage extends PayloadPerDevice {
+
+		private final PushFuture future;
+
+
+		SubmittedMessage(PayloadPerDevice message, PushFuture future) {
+			super(message.getPayload(), message.getDevice());
+			this.future = future;
+		}
+
+	}
+
 }
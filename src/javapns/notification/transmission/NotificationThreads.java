@@ -1,6 +1,7 @@
 package javapns.notification.transmission;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import javapns.devices.*;
 import javapns.devices.exceptions.*;
@@ -18,9 +19,34 @@ import javapns.notification.*;
  * @see NotificationThread.MODE
  * @see NotificationThread
  */
-public class NotificationThreads extends ThreadGroup implements PushQueue {
+public class NotificationThreads extends ThreadGroup implements BoundedPushQueue {
+
+	/**
+	 * Strategies for choosing which thread a message added to the pool is routed to (QUEUE mode only).
+	 */
+	public static enum DISPATCH {
+		/**
+		 * Route each message to the next thread in turn, skipping threads that are busy pushing if possible.
+		 */
+		ROUND_ROBIN,
+
+		/**
+		 * Route each message to the thread with the least pending work (queued plus in-flight messages).
+		 * Ties are broken in round-robin order.
+		 */
+		LEAST_LOADED,
+
+		/**
+		 * Pick two threads at random and route the message to the least loaded of both.
+		 * This balances load nearly as well as LEAST_LOADED without inspecting every thread, which is useful with large pools.
+		 */
+		POWER_OF_TWO_CHOICES
+	};
 
 	private static final long DEFAULT_DELAY_BETWEEN_THREADS = 500; // the number of milliseconds to wait between each thread startup
+	private static final int DEFAULT_CHUNK_SIZE = 500; // the number of devices claimed at once by threads pulling chunks of a shared list
+	private static final long DEFAULT_START_JITTER = 100; // the maximum random delay before each thread connects, when starting threads in parallel
+	private static final long DEFAULT_START_TIMEOUT = 30 * 1000; // the maximum number of milliseconds to wait for a quorum of connections to be ready
 	private List<NotificationThread> threads = new Vector<NotificationThread>();
 	private NotificationProgressListener listener;
 	private boolean started = false;
@@ -28,6 +54,26 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 	private int nextThread = 0;
 	private Object finishPoint = new Object();
 	private long delayBetweenThreads = DEFAULT_DELAY_BETWEEN_THREADS;
+	private DISPATCH dispatch = DISPATCH.LEAST_LOADED;
+
+	/* Complete list of devices or messages in LIST mode, shared by threads when pulling chunks */
+	private List<Device> devices;
+	private List<PayloadPerDevice> messages;
+	private int chunkSize = 0;
+
+	/* Devices or messages pulled lazily by all threads in LIST mode, when created from an iterator */
+	private Iterator<?> stream;
+
+	/* Parallel start */
+	private boolean parallelStart = false;
+	private int startQuorum = 0;
+	private long startJitter = DEFAULT_START_JITTER;
+	private long startTimeout = DEFAULT_START_TIMEOUT;
+	private Object readyPoint = new Object();
+	private int connectionsReady = 0;
+	private int connectionsSettled = 0;
+	private long quorumDeadline = 0;
+	private final Random random = new Random();
 
 
 	/**
@@ -41,8 +87,14 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 	public NotificationThreads(AppleNotificationServer server, Payload payload, List<Device> devices, int numberOfThreads) {
 		super("javapns notification threads (" + numberOfThreads + " threads)");
 		if (devices.size() < numberOfThreads) numberOfThreads = devices.size();
-		for (List deviceGroup : makeGroups(devices, numberOfThreads))
-			threads.add(new NotificationThread(this, new PushNotificationManager(), server, payload, deviceGroup));
+		int offset = 0;
+		for (List deviceGroup : makeGroups(devices, numberOfThreads)) {
+			NotificationThread thread = new NotificationThread(this, new PushNotificationManager(), server, payload, deviceGroup);
+			thread.setDeviceIndexOffset(offset);
+			threads.add(thread);
+			offset += deviceGroup.size();
+		}
+		this.devices = devices;
 	}
 
 
@@ -56,8 +108,52 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 	public NotificationThreads(AppleNotificationServer server, List<PayloadPerDevice> messages, int numberOfThreads) {
 		super("javapns notification threads (" + numberOfThreads + " threads)");
 		if (messages.size() < numberOfThreads) numberOfThreads = messages.size();
-		for (List deviceGroup : makeGroups(messages, numberOfThreads))
-			threads.add(new NotificationThread(this, new PushNotificationManager(), server, deviceGroup));
+		int offset = 0;
+		for (List deviceGroup : makeGroups(messages, numberOfThreads)) {
+			NotificationThread thread = new NotificationThread(this, new PushNotificationManager(), server, deviceGroup);
+			thread.setDeviceIndexOffset(offset);
+			threads.add(thread);
+			offset += deviceGroup.size();
+		}
+		this.messages = messages;
+	}
+
+
+	/**
+	 * Create the specified number of notification threads pulling devices lazily from an iterator.
+	 * 
+	 * Threads claim chunks of devices from the iterator as they go (see {@link #setChunkSize(int)}),
+	 * so devices can be read from a database cursor or a file without ever holding the whole audience in memory.
+	 * Since the number of devices is not known in advance, each thread only retains its most recent
+	 * notifications;  use a {@link NotificationProgressListener} to track the whole job.
+	 * 
+	 * The iterator is only accessed by one thread at a time.  If it throws a runtime exception,
+	 * threads stop pulling devices and the exception is reported as a critical exception.
+	 * 
+	 * @param server the server to push to
+	 * @param payload the payload to push
+	 * @param devices an iterator of tokens (String), devices (Device) or payload/device pairs (PayloadPerDevice, whose own payload is used)
+	 * @param numberOfThreads the number of threads to create to share the work
+	 */
+	public NotificationThreads(AppleNotificationServer server, Payload payload, Iterator<?> devices, int numberOfThreads) {
+		super("javapns notification threads (" + numberOfThreads + " threads)");
+		if (numberOfThreads < 1) numberOfThreads = 1;
+		for (int i = 0; i < numberOfThreads; i++)
+			threads.add(new NotificationThread(this, new PushNotificationManager(), server, payload, new Vector<Device>()));
+		this.stream = devices;
+	}
+
+
+	/**
+	 * Create the specified number of notification threads pulling payload/device pairs lazily from an iterator.
+	 * See {@link #NotificationThreads(AppleNotificationServer, Payload, Iterator, int)} for details.
+	 * 
+	 * @param server the server to push to
+	 * @param messages an iterator of payload/device pairs
+	 * @param numberOfThreads the number of threads to create to share the work
+	 */
+	public NotificationThreads(AppleNotificationServer server, Iterator<PayloadPerDevice> messages, int numberOfThreads) {
+		this(server, null, messages, numberOfThreads);
 	}
 
 
@@ -91,8 +187,13 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 		super("javapns notification threads (" + threads.size() + " threads)");
 		this.threads = threads;
 		List<List> groups = makeGroups(devices, threads.size());
-		for (int i = 0; i < groups.size(); i++)
+		int offset = 0;
+		for (int i = 0; i < groups.size(); i++) {
 			threads.get(i).setDevices(groups.get(i));
+			threads.get(i).setDeviceIndexOffset(offset);
+			offset += groups.get(i).size();
+		}
+		this.devices = devices;
 	}
 
 
@@ -175,11 +276,41 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 
 
 	/**
-	 * Get the next available thread.
+	 * Queue a message for delivery on the next available thread, and get a future tracking its outcome.
+	 * 
+	 * @param message a payload/device pair
+	 * @return a future which completes once the outcome of the notification is final
+	 */
+	public PushFuture submit(PayloadPerDevice message) {
+		start(); // just in case start() was not invoked before
+		return getNextAvailableThread().submit(message);
+	}
+
+
+	/**
+	 * Get the next available thread, according to the dispatch strategy.
+	 * Subclasses can override this method to implement their own strategy.
 	 * 
 	 * @return a thread potentially available to work
 	 */
 	protected NotificationThread getNextAvailableThread() {
+		switch (dispatch) {
+			case LEAST_LOADED:
+				return getLeastLoadedThread();
+			case POWER_OF_TWO_CHOICES:
+				return getLeastLoadedOfTwoThreads();
+			default:
+				return getNextIdleThread();
+		}
+	}
+
+
+	/**
+	 * Get the next thread in turn which is not busy pushing.
+	 * 
+	 * @return a thread potentially available to work
+	 */
+	private NotificationThread getNextIdleThread() {
 		for (int i = 0; i < threads.size(); i++) {
 			NotificationThread thread = getNextThread();
 			boolean busy = thread.isBusy();
@@ -189,6 +320,45 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 	}
 
 
+	/**
+	 * Get the thread with the least pending work, scanning from the next thread in turn.
+	 * 
+	 * @return the least loaded thread
+	 */
+	private NotificationThread getLeastLoadedThread() {
+		NotificationThread leastLoaded = getNextThread();
+		int leastLoad = leastLoaded.getLoad();
+		int size = threads.size();
+		int start = threads.indexOf(leastLoaded);
+		for (int i = 1; i < size && leastLoad > 0; i++) {
+			NotificationThread thread = threads.get((start + i) % size);
+			int load = thread.getLoad();
+			if (load < leastLoad) {
+				leastLoaded = thread;
+				leastLoad = load;
+			}
+		}
+		return leastLoaded;
+	}
+
+
+	/**
+	 * Get the least loaded of two threads picked at random.
+	 * 
+	 * @return the least loaded of both threads
+	 */
+	private NotificationThread getLeastLoadedOfTwoThreads() {
+		int size = threads.size();
+		if (size < 2) return getNextThread();
+		int first = random.nextInt(size);
+		int second = random.nextInt(size - 1);
+		if (second >= first) second++;
+		NotificationThread a = threads.get(first);
+		NotificationThread b = threads.get(second);
+		return b.getLoad() < a.getLoad() ? b : a;
+	}
+
+
 	/**
 	 * Get the next thread to use.
 	 * 
@@ -240,6 +410,9 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 		started = true;
 		if (threadsRunning > 0) throw new IllegalStateException("NotificationThreads already started (" + threadsRunning + " still running)");
 		assignThreadsNumbers();
+		assignSharedChunks();
+		assignBroadcastFrames();
+		if (parallelStart) return startInParallel();
 		for (NotificationThread thread : threads) {
 			threadsRunning++;
 			thread.start();
@@ -254,6 +427,65 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 	}
 
 
+	/**
+	 * Start all threads at once, each one connecting after a small random delay,
+	 * and wait until a quorum of connections is ready (or until the start timeout elapses).
+	 */
+	private NotificationThreads startInParallel() {
+		quorumDeadline = System.currentTimeMillis() + startTimeout;
+		for (NotificationThread thread : threads) {
+			thread.setStartDelay(startJitter > 0 ? (long) (random.nextDouble() * startJitter) : 0);
+			threadsRunning++;
+			thread.start();
+		}
+		if (listener != null) listener.eventAllThreadsStarted(this);
+		awaitQuorum();
+		return this;
+	}
+
+
+	/**
+	 * Worker threads invoke this method as soon as they have opened their connection, or failed to.
+	 * When threads are started in parallel, threads whose connection is ready are held here
+	 * until a quorum of connections is ready.
+	 * 
+	 * @param notificationThread the thread reporting
+	 * @param ready true if the thread's connection is ready, false if it could not be opened
+	 */
+	protected void connectionSettled(NotificationThread notificationThread, boolean ready) {
+		boolean quorumReached;
+		synchronized (readyPoint) {
+			connectionsSettled++;
+			if (ready) connectionsReady++;
+			quorumReached = ready && connectionsReady == getQuorum();
+			readyPoint.notifyAll();
+		}
+		if (!parallelStart) return;
+		if (quorumReached && listener instanceof ConnectionProgressListener) ((ConnectionProgressListener) listener).eventQuorumReady(this);
+		if (ready) awaitQuorum();
+	}
+
+
+	private void awaitQuorum() {
+		synchronized (readyPoint) {
+			while (connectionsReady < getQuorum() && connectionsSettled < threads.size()) {
+				long remaining = quorumDeadline - System.currentTimeMillis();
+				if (remaining <= 0) break;
+				try {
+					readyPoint.wait(remaining);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}
+	}
+
+
+	private int getQuorum() {
+		return startQuorum <= 0 || startQuorum > threads.size() ? threads.size() : startQuorum;
+	}
+
+
 	/**
 	 * Configure in all threads the maximum number of notifications per connection.
 	 * 
@@ -282,6 +514,221 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 	}
 
 
+	/**
+	 * Configure in all threads the batching of messages on their connection.
+	 * 
+	 * When batching is enabled, each thread accumulates messages and writes them out
+	 * in a single write as soon as the batch reaches the given size or time window,
+	 * instead of writing and flushing every message individually.
+	 * 
+	 * @param batchSize the maximum number of bytes to accumulate before writing messages out (0 to disable batching, which is the default)
+	 * @param batchWindow the maximum number of milliseconds a message can be held in a batch
+	 */
+	public void setBatching(int batchSize, long batchWindow) {
+		for (NotificationThread thread : threads)
+			thread.setBatching(batchSize, batchWindow);
+	}
+
+
+	/**
+	 * Set the strategy used to choose which thread a message added to the pool is routed to.
+	 * 
+	 * Default is LEAST_LOADED.
+	 * 
+	 * @param dispatch a dispatch strategy
+	 */
+	public void setDispatch(DISPATCH dispatch) {
+		this.dispatch = dispatch == null ? DISPATCH.LEAST_LOADED : dispatch;
+	}
+
+
+	public DISPATCH getDispatch() {
+		return dispatch;
+	}
+
+
+	/**
+	 * Get the number of messages routed to each thread so far, in the same order as getThreads().
+	 * This is useful to verify that the dispatch strategy spreads work evenly.
+	 * 
+	 * @return an array of message counts, one per thread
+	 */
+	public long[] getMessagesQueuedPerThread() {
+		long[] counts = new long[threads.size()];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = threads.get(i).getMessagesQueued();
+		return counts;
+	}
+
+
+	/**
+	 * Start all threads at once instead of one by one.
+	 * 
+	 * By default, threads are started one after the other with a delay between each of them
+	 * (see {@link #setDelayBetweenThreads(long)}), so a large pool takes a long time to reach full speed.
+	 * When starting in parallel, all threads open their connection and complete their handshake
+	 * concurrently, each one after a random delay of up to maxJitter milliseconds to avoid a burst
+	 * of simultaneous handshakes.  Threads only start pushing, and start() only returns, once the
+	 * quorum of connections is ready, all connections have been attempted, or the start timeout elapses.
+	 * 
+	 * This method must be invoked before start().
+	 * 
+	 * @param quorum the number of connections that must be ready before pushing starts (0 for all threads)
+	 * @param maxJitter the maximum random delay in milliseconds before each thread connects (0 for none)
+	 */
+	public void setParallelStart(int quorum, long maxJitter) {
+		this.parallelStart = true;
+		this.startQuorum = quorum;
+		this.startJitter = maxJitter;
+	}
+
+
+	/**
+	 * Start all threads at once, waiting for all connections to be ready before pushing.
+	 * See {@link #setParallelStart(int, long)} for details.
+	 */
+	public void enableParallelStart() {
+		setParallelStart(0, DEFAULT_START_JITTER);
+	}
+
+
+	public boolean isParallelStart() {
+		return parallelStart;
+	}
+
+
+	/**
+	 * Set the maximum number of milliseconds to wait for a quorum of connections when starting threads in parallel.
+	 * 
+	 * Default is 30000.
+	 * 
+	 * @param milliseconds a number of milliseconds
+	 */
+	public void setStartTimeout(long milliseconds) {
+		this.startTimeout = milliseconds;
+	}
+
+
+	public long getStartTimeout() {
+		return startTimeout;
+	}
+
+
+	/**
+	 * Get the number of threads whose connection has been opened successfully so far.
+	 * 
+	 * @return a number of connections
+	 */
+	public int getConnectionsReady() {
+		synchronized (readyPoint) {
+			return connectionsReady;
+		}
+	}
+
+
+	/**
+	 * Make threads pull chunks of devices from a shared list instead of pushing fixed groups.
+	 * 
+	 * By default, the list of devices is split up front into one group per thread, so the whole
+	 * job has to wait for the slowest thread to finish its group.  When chunking is enabled,
+	 * threads repeatedly claim the next chunk of the list until it is exhausted, so a thread
+	 * slowed down by a degraded connection simply pushes fewer devices than the others.
+	 * 
+	 * This method must be invoked before start(), and only applies to threads created by this
+	 * object from a list of devices or messages (LIST mode).  Threads created from an iterator
+	 * always pull chunks, using a default size of 500 if chunking is disabled.
+	 * 
+	 * @param chunkSize the number of devices claimed at once by a thread (0 to disable chunking, which is the default)
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+
+	/**
+	 * Make threads pull chunks of 500 devices from a shared list instead of pushing fixed groups.
+	 * See {@link #setChunkSize(int)} for details.
+	 */
+	public void enableChunking() {
+		setChunkSize(DEFAULT_CHUNK_SIZE);
+	}
+
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+
+	/**
+	 * Configure in all threads the capacity of their queue and the policy to apply when it is full.
+	 * See {@link NotificationThread#setCapacity(int, PushQueue.BACKPRESSURE)} for details.
+	 * 
+	 * @param capacity the maximum number of messages waiting to be pushed by each thread (default is 10000)
+	 * @param policy the policy to apply when a thread's queue is full (default is BLOCK)
+	 */
+	public void setCapacity(int capacity, BACKPRESSURE policy) {
+		for (NotificationThread thread : threads)
+			thread.setCapacity(capacity, policy);
+	}
+
+
+	/**
+	 * Enable or disable in all threads the continuous reading of error-response packets.
+	 * See {@link PushNotificationManager#setContinuousResponseReading(boolean)} for details.
+	 * 
+	 * @param enabled true to read error-responses with a dedicated reader on each connection (default is false)
+	 */
+	public void setContinuousResponseReading(boolean enabled) {
+		for (NotificationThread thread : threads)
+			thread.getNotificationManager().setContinuousResponseReading(enabled);
+	}
+
+
+	/**
+	 * Enable or disable in all threads the opening of standby connections.
+	 * See {@link PushNotificationManager#setStandbyConnections(boolean)} for details.
+	 * 
+	 * @param enabled true to open replacement connections in the background before rotating connections (default is false)
+	 */
+	public void setStandbyConnections(boolean enabled) {
+		for (NotificationThread thread : threads)
+			thread.getNotificationManager().setStandbyConnections(enabled);
+	}
+
+
+	/**
+	 * Run the work of all threads using an executor instead of dedicated platform threads.
+	 * This method must be invoked before start().
+	 * 
+	 * Threads keep their names while their work runs in the executor, and progress events
+	 * and waitForAllThreads() behave as usual.  In QUEUE mode, each thread occupies one of
+	 * the executor's threads until the queue is stopped.
+	 * 
+	 * @param executor an executor service, or null to use dedicated threads (the default)
+	 */
+	public void setExecutor(ExecutorService executor) {
+		for (NotificationThread thread : threads)
+			thread.setExecutor(executor);
+	}
+
+
+	/**
+	 * Run all threads in virtual threads instead of platform threads, if the JRE supports them
+	 * (Java 21 or later), so that hundreds of connections can be kept open without the cost of
+	 * hundreds of platform threads.  On older JREs, platform threads are used as usual.
+	 * This method must be invoked before start().
+	 * 
+	 * Virtual threads do not belong to this thread group, but progress events and
+	 * waitForAllThreads() behave as usual.
+	 * 
+	 * @param virtualThreads true to use virtual threads (default is false)
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		for (NotificationThread thread : threads)
+			thread.setVirtualThread(virtualThreads);
+	}
+
+
 	/**
 	 * Get a list of threads created to push notifications.
 	 * 
@@ -313,6 +760,20 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 	}
 
 
+	/**
+	 * Provide a sink to report the outcome of every notification pushed by all threads to, as soon as it is final.
+	 * When a sink is provided, threads no longer retain pushed notifications, so large jobs stream their outcomes
+	 * out with constant memory.  The sink is invoked by all threads concurrently.
+	 * This method should be invoked before start().
+	 * 
+	 * @param sink a thread-safe result sink, or null to retain pushed notifications in each thread's list
+	 */
+	public void setResultSink(PushResultSink sink) {
+		for (NotificationThread thread : threads)
+			thread.setResultSink(sink);
+	}
+
+
 	/**
 	 * Worker threads invoke this method as soon as they have completed their work.
 	 * This method tracks the number of threads still running, allowing us
@@ -378,6 +839,51 @@ public class NotificationThreads extends ThreadGroup implements PushQueue {
 	}
 
 
+	/**
+	 * If chunking is enabled, give every thread the complete list and a shared cursor to pull chunks from.
+	 * If threads were created from an iterator, give every thread a shared stream to pull chunks from.
+	 */
+	private void assignSharedChunks() {
+		if (stream != null) {
+			SharedDeviceStream shared = new SharedDeviceStream(stream, chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE);
+			for (NotificationThread thread : threads)
+				thread.setStream(shared);
+			return;
+		}
+		if (chunkSize <= 0) return;
+		if (devices == null && messages == null) return;
+		SharedChunkCursor cursor = new SharedChunkCursor(devices != null ? devices.size() : messages.size(), chunkSize);
+		for (NotificationThread thread : threads) {
+			if (devices != null) thread.setDevices(devices);
+			else thread.setMessages(messages);
+			thread.setChunks(cursor);
+		}
+	}
+
+
+	/**
+	 * Serialize the payload pushed by threads in LIST mode once, and share the resulting frame between all threads pushing it.
+	 */
+	private void assignBroadcastFrames() {
+		Map<Payload, BroadcastFrame> frames = new IdentityHashMap<Payload, BroadcastFrame>();
+		for (NotificationThread thread : threads) {
+			Payload payload = thread.getPayload();
+			if (payload == null) continue;
+			if (!frames.containsKey(payload)) {
+				BroadcastFrame frame = null;
+				try {
+					frame = new BroadcastFrame(payload);
+				} catch (Exception e) {
+					/* The payload cannot be broadcast, so the problem (if any) will be reported for each notification */
+				}
+				frames.put(payload, frame);
+			}
+			BroadcastFrame frame = frames.get(payload);
+			if (frame != null) thread.setBroadcastFrame(frame);
+		}
+	}
+
+
 	/**
 	 * Assign unique numbers to worker threads.
 	 * Thread numbers allow each thread to generate message identifiers that
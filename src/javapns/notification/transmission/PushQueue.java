@@ -13,6 +13,29 @@ import javapns.notification.*;
  */
 public interface PushQueue {
 
+	/**
+	 * Policies applied when a message is added to a queue which is already full.
+	 */
+	public static enum BACKPRESSURE {
+		/**
+		 * Block the caller until the queue has room for the message.
+		 * This is appropriate when messages are generated faster than they can be pushed and no message should be lost.
+		 */
+		BLOCK,
+
+		/**
+		 * Fail fast:  the message is not queued and a {@link javapns.notification.exceptions.PushQueueFullException PushQueueFullException} is thrown to the caller.
+		 */
+		FAIL,
+
+		/**
+		 * Drop the oldest queued message to make room for the new one.
+		 * The dropped message is reported as a failed notification with a {@link javapns.notification.exceptions.PushQueueFullException PushQueueFullException}.
+		 */
+		DROP_OLDEST
+	};
+
+
 	/**
 	 * Queue a message for delivery.  A thread will pick it up and push it asynchroneously.
 	 * This method has no effect if the underlying notification thread is not in QUEUE mode.
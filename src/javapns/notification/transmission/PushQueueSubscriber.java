@@ -0,0 +1,193 @@
+package javapns.notification.transmission;
+
+import java.util.concurrent.atomic.*;
+
+import javapns.notification.*;
+
+/**
+ * <p>Feeds a BoundedPushQueue from a producer that honours backpressure, such as a reactive pipeline.</p>
+ * 
+ * <p>The subscriber never requests more messages than the queue can hold:  it initially requests as many
+ * messages as the queue's capacity, and requests more only as messages are actually streamed out to Apple
+ * (or fail).  The rate at which the producer is asked for messages therefore follows the throughput of the
+ * connections, and a producer flooding the queue cannot overrun the heap.</p>
+ * 
+ * <p>Results are published as they are produced, including error-response outcomes, to an optional
+ * {@link javapns.notification.PushFutureListener PushFutureListener}.</p>
+ * 
+ * <p>The methods of this class mirror the Subscriber of the Reactive Streams specification
+ * (java.util.concurrent.Flow.Subscriber in Java 9 and later).</p>
+ * 
+ * @author Sylvain Pedneault
+ */
+public class PushQueueSubscriber implements PushFutureListener {
+
+	private final BoundedPushQueue queue;
+	private final int maxOutstanding;
+	private final int requestBatch;
+	private final PushFutureListener resultListener;
+
+	private volatile PushSubscription subscription;
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final AtomicInteger released = new AtomicInteger();
+	private volatile boolean completed = false;
+	private volatile Throwable error;
+
+
+	/**
+	 * Create a subscriber feeding a queue.
+	 * 
+	 * @param queue the queue to feed
+	 * @param maxOutstanding the maximum number of messages submitted to the queue but not written out yet
+	 * @param resultListener a listener to publish results to, or null
+	 */
+	public PushQueueSubscriber(BoundedPushQueue queue, int maxOutstanding, PushFutureListener resultListener) {
+		this.queue = queue;
+		this.maxOutstanding = Math.max(1, maxOutstanding);
+		this.requestBatch = Math.max(1, this.maxOutstanding / 4);
+		this.resultListener = resultListener;
+	}
+
+
+	/**
+	 * Create a subscriber feeding a single thread, requesting no more messages than its queue can hold.
+	 * 
+	 * @param thread a thread in QUEUE mode
+	 * @param resultListener a listener to publish results to, or null
+	 */
+	public PushQueueSubscriber(NotificationThread thread, PushFutureListener resultListener) {
+		this(thread, thread.getCapacity(), resultListener);
+	}
+
+
+	/**
+	 * Create a subscriber feeding a pool of threads, requesting no more messages than their queues can hold together.
+	 * 
+	 * @param threads a pool of threads in QUEUE mode
+	 * @param resultListener a listener to publish results to, or null
+	 */
+	public PushQueueSubscriber(NotificationThreads threads, PushFutureListener resultListener) {
+		this(threads, getCapacity(threads), resultListener);
+	}
+
+
+	private static int getCapacity(NotificationThreads threads) {
+		long capacity = 0;
+		for (NotificationThread thread : threads.getThreads())
+			capacity += thread.getCapacity();
+		return (int) Math.min(capacity, Integer.MAX_VALUE);
+	}
+
+
+	/**
+	 * Invoked by the producer when the subscription starts.  The initial demand is requested right away.
+	 * 
+	 * @param subscription the subscription to request messages from
+	 */
+	public void onSubscribe(PushSubscription subscription) {
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		subscription.request(maxOutstanding);
+	}
+
+
+	/**
+	 * Invoked by the producer for each message requested.
+	 * 
+	 * @param message a payload/device pair
+	 */
+	public void onNext(PayloadPerDevice message) {
+		outstanding.incrementAndGet();
+		queue.submit(message).addListener(this);
+	}
+
+
+	/**
+	 * Invoked by the producer if it fails.  No more messages are requested.
+	 * 
+	 * @param throwable the failure
+	 */
+	public void onError(Throwable throwable) {
+		this.error = throwable;
+		this.completed = true;
+	}
+
+
+	/**
+	 * Invoked by the producer once it has delivered all its messages.
+	 */
+	public void onComplete() {
+		this.completed = true;
+	}
+
+
+	/**
+	 * Stop requesting messages from the producer.
+	 */
+	public void cancel() {
+		PushSubscription subscription = this.subscription;
+		completed = true;
+		if (subscription != null) subscription.cancel();
+	}
+
+
+	public void eventWritten(PushFuture future) {
+		release();
+		if (resultListener != null) resultListener.eventWritten(future);
+	}
+
+
+	public void eventCompleted(PushFuture future) {
+		/* Notifications that could not be written release their room when they complete */
+		if (!future.isWritten()) release();
+		if (resultListener != null) resultListener.eventCompleted(future);
+	}
+
+
+	/**
+	 * Account for a message that left the queue, and request more messages once enough room was freed.
+	 */
+	private void release() {
+		outstanding.decrementAndGet();
+		int freed = released.incrementAndGet();
+		if (freed < requestBatch || completed) return;
+		if (released.compareAndSet(freed, 0)) {
+			PushSubscription subscription = this.subscription;
+			if (subscription != null) subscription.request(freed);
+		}
+	}
+
+
+	/**
+	 * Get the number of messages submitted to the queue but not written out yet.
+	 * 
+	 * @return a number of messages
+	 */
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+
+	/**
+	 * Indicates if the producer completed, failed or was cancelled.
+	 * 
+	 * @return true if no more messages are expected
+	 */
+	public boolean isCompleted() {
+		return completed;
+	}
+
+
+	/**
+	 * Get the failure reported by the producer, if any.
+	 * 
+	 * @return a failure, or null
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+}
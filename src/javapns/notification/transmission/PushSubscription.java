@@ -0,0 +1,27 @@
+package javapns.notification.transmission;
+
+/**
+ * <p>A link between a producer of messages and a {@link PushQueueSubscriber}, through which
+ * the subscriber signals how many more messages it can accept.</p>
+ * 
+ * <p>This interface mirrors the Subscription of the Reactive Streams specification
+ * (java.util.concurrent.Flow.Subscription in Java 9 and later), so that reactive
+ * pipelines can be bridged to it with a one-line adapter.</p>
+ * 
+ * @author Sylvain Pedneault
+ */
+public interface PushSubscription {
+
+	/**
+	 * Allow the producer to deliver up to n more messages.
+	 * @param n a number of messages
+	 */
+	public void request(long n);
+
+
+	/**
+	 * Ask the producer to stop delivering messages.
+	 */
+	public void cancel();
+
+}
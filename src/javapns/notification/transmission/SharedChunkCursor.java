@@ -0,0 +1,68 @@
+package javapns.notification.transmission;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A cursor shared by LIST-mode threads working on a common list of devices or messages.
+ *
+ * <p>Instead of being assigned a fixed group of devices up front, each thread repeatedly
+ * claims the next chunk of the list until the list is exhausted.  A thread slowed down by
+ * a degraded connection simply claims fewer chunks, so the job completes as soon as the
+ * threads together have pushed the whole list.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+class SharedChunkCursor {
+
+	private final int total;
+	private final int chunkSize;
+	private final AtomicInteger next = new AtomicInteger();
+
+
+	/**
+	 * Create a cursor over a list.
+	 *
+	 * @param total the number of items in the list
+	 * @param chunkSize the number of items claimed at once
+	 */
+	SharedChunkCursor(int total, int chunkSize) {
+		this.total = total;
+		this.chunkSize = chunkSize;
+	}
+
+
+	/**
+	 * Claim the next chunk of the list.
+	 *
+	 * @return the index of the first item of the chunk, or -1 if the list is exhausted
+	 */
+	int claim() {
+		while (true) {
+			int start = next.get();
+			if (start >= total) return -1;
+			if (next.compareAndSet(start, Math.min(start + chunkSize, total))) return start;
+		}
+	}
+
+
+	/**
+	 * Get the end of a chunk previously claimed.
+	 *
+	 * @param start the index of the first item of the chunk
+	 * @return the index following the last item of the chunk
+	 */
+	int endOf(int start) {
+		return Math.min(start + chunkSize, total);
+	}
+
+
+	/**
+	 * Get the number of items in the list.
+	 *
+	 * @return the number of items
+	 */
+	int getTotal() {
+		return total;
+	}
+
+}
@@ -0,0 +1,84 @@
+package javapns.notification.transmission;
+
+import java.util.*;
+
+/**
+ * A stream of devices or messages shared by LIST-mode threads, pulled lazily in chunks.
+ *
+ * <p>Unlike {@link SharedChunkCursor}, which hands out index ranges of a list held in memory,
+ * this stream reads its items from an iterator as threads claim them, so only the chunks
+ * currently being pushed are held in memory, no matter how many devices the iterator produces.</p>
+ *
+ * <p>Null items are claimed like any other item, so that positions in the stream always match
+ * positions in the iterator, but threads do not push anything for them.</p>
+ *
+ * <p>If the iterator throws a runtime exception, the stream ends and the exception is
+ * kept so that threads can report it as a critical exception.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+class SharedDeviceStream {
+
+	private final Iterator<?> items;
+	private final int chunkSize;
+	private boolean exhausted = false;
+	private int claimed = 0;
+	private RuntimeException exception;
+	private boolean exceptionReported = false;
+
+
+	/**
+	 * Create a stream over an iterator.
+	 *
+	 * @param items an iterator of tokens (String), devices (Device) or payload/device pairs (PayloadPerDevice)
+	 * @param chunkSize the number of items claimed at once
+	 */
+	SharedDeviceStream(Iterator<?> items, int chunkSize) {
+		this.items = items;
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+
+	/**
+	 * Claim the next chunk of the stream.
+	 *
+	 * @param chunk a list to fill with the items claimed (cleared first), which may include null items
+	 * @return the position of the first item claimed in the stream, or -1 if the stream is exhausted and no item was claimed
+	 */
+	synchronized int claim(List<Object> chunk) {
+		chunk.clear();
+		if (exhausted) return -1;
+		try {
+			while (chunk.size() < chunkSize && items.hasNext()) {
+				chunk.add(items.next());
+			}
+			if (chunk.size() < chunkSize) exhausted = true;
+		} catch (RuntimeException e) {
+			exception = e;
+			exhausted = true;
+		}
+		if (chunk.isEmpty()) return -1;
+		int start = claimed;
+		claimed += chunk.size();
+		return start;
+	}
+
+
+	/**
+	 * Get the exception thrown by the iterator, if any.  The exception is returned to a single caller,
+	 * so that it is reported once even though several threads share this stream.
+	 *
+	 * @return a runtime exception, or null if the iterator was read without errors or if the exception was already reported
+	 */
+	synchronized RuntimeException takeException() {
+		if (exceptionReported) return null;
+		exceptionReported = exception != null;
+		return exception;
+	}
+
+
+	int getChunkSize() {
+		return chunkSize;
+	}
+
+}
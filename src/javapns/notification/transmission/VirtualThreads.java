@@ -0,0 +1,72 @@
+package javapns.notification.transmission;
+
+import java.lang.reflect.*;
+
+/**
+ * Creates virtual threads on JREs that support them (Java 21 and later).
+ *
+ * <p>The library is compiled for older JREs, so the virtual thread builder
+ * is looked up by reflection.  On older JREs, and on Java 19 or 20 without
+ * preview features enabled, isSupported() returns false.</p>
+ *
+ * @author Sylvain Pedneault
+ */
+class VirtualThreads {
+
+	private static final Method ofVirtual;
+	private static final Method name;
+	private static final Method unstarted;
+
+	static {
+		Method ofVirtualMethod = null;
+		Method nameMethod = null;
+		Method unstartedMethod = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+			nameMethod = builder.getMethod("name", String.class);
+			unstartedMethod = builder.getMethod("unstarted", Runnable.class);
+			/* Java 19 and 20 have the method, but it fails unless preview features are enabled */
+			ofVirtualMethod.invoke(null);
+		} catch (Exception e) {
+			ofVirtualMethod = null;
+		}
+		ofVirtual = ofVirtualMethod;
+		name = nameMethod;
+		unstarted = unstartedMethod;
+	}
+
+
+	private VirtualThreads() {
+	}
+
+
+	/**
+	 * Check if the running JRE supports virtual threads.
+	 *
+	 * @return true if virtual threads can be created
+	 */
+	static boolean isSupported() {
+		return ofVirtual != null;
+	}
+
+
+	/**
+	 * Create an unstarted virtual thread.
+	 *
+	 * @param task the task the thread will run
+	 * @param threadName the name of the thread
+	 * @return a virtual thread
+	 * @throws UnsupportedOperationException if the running JRE does not support virtual threads
+	 */
+	static Thread newThread(Runnable task, String threadName) {
+		if (ofVirtual == null) throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+		try {
+			Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+			return (Thread) unstarted.invoke(builder, task);
+		} catch (Exception e) {
+			throw new UnsupportedOperationException("Could not create virtual thread: " + e.getMessage());
+		}
+	}
+
+}
@@ -175,7 +175,7 @@ public class NotificationTest extends TestFoundation {
 	/**
 	 * A NotificationProgressListener you can use to debug NotificationThreads.
 	 */
-	public static final NotificationProgressListener DEBUGGING_PROGRESS_LISTENER = new NotificationProgressListener() {
+	public static final NotificationProgressListener DEBUGGING_PROGRESS_LISTENER = new ConnectionProgressListener() {
 
 		public void eventThreadStarted(NotificationThread notificationThread) {
 			System.out.println("   [EVENT]: thread #" + notificationThread.getThreadNumber() + " started with " + notificationThread.getDevices().size() + " devices beginning at message id #" + notificationThread.getFirstMessageIdentifier());
@@ -197,6 +197,16 @@ public class NotificationTest extends TestFoundation {
 		}
 
 
+		public void eventConnectionReady(NotificationThread thread) {
+			System.out.println("   [EVENT]: connection ready in thread #" + thread.getThreadNumber());
+		}
+
+
+		public void eventQuorumReady(NotificationThreads notificationThreads) {
+			System.out.println("   [EVENT]: quorum reached: " + notificationThreads.getConnectionsReady() + " connections ready");
+		}
+
+
 		public void eventAllThreadsFinished(NotificationThreads notificationThreads) {
 			System.out.println("   [EVENT]: all threads finished: " + notificationThreads.getThreads().size());
 		}